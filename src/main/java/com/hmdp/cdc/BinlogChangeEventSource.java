@@ -0,0 +1,237 @@
+package com.hmdp.cdc;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventHeaderV4;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.RotateEventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 以从库的身份读取MySQL的binlog，需要开启ROW格式的binlog，账号需要REPLICATION SLAVE和REPLICATION CLIENT权限
+ * 确认的位置只取事务提交点，重启后从最近确认的事务开始重新读取，保证至少处理一次
+ */
+@Slf4j
+public class BinlogChangeEventSource implements ChangeEventSource
+{
+    private final BinaryLogClient client;
+
+    private final String database;
+
+    private final Set<String> tables;
+
+    private final Path positionFile;
+
+    /**
+     * 用于查询表的列名，binlog中只有列的序号
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<Long, TableMapEventData> tableMaps = new HashMap<>();
+
+    private final Map<String, List<String>> columns = new ConcurrentHashMap<>();
+
+    private String binlogFilename;
+
+    /**
+     * 最近一个事务提交点的位置，当前事务中的变更都以该位置确认
+     */
+    private String committedPosition;
+
+    public BinlogChangeEventSource(String host, int port, String username, String password, long serverId
+            , String database, Set<String> tables, String positionFile, JdbcTemplate jdbcTemplate)
+    {
+        this.client = new BinaryLogClient(host, port, username, password);
+        this.client.setServerId(serverId);
+        this.database = database;
+        this.tables = tables;
+        this.positionFile = Paths.get(positionFile);
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void start(Consumer<ChangeEvent> sink)
+    {
+        try {
+            Files.createDirectories(positionFile.toAbsolutePath().getParent());
+        } catch (IOException e) {
+            throw new IllegalStateException("创建binlog位置文件的目录失败", e);
+        }
+        loadPosition();
+        EventDeserializer deserializer = new EventDeserializer();
+        deserializer.setCompatibilityMode(EventDeserializer.CompatibilityMode.CHAR_AND_BINARY_AS_BYTE_ARRAY);
+        client.setEventDeserializer(deserializer);
+        client.registerEventListener(event -> onEvent(event, sink));
+        try {
+            // 在独立的线程中读取，断开后自动重连
+            client.connect(10000);
+        } catch (Exception e) {
+            throw new IllegalStateException("连接binlog失败", e);
+        }
+        log.info("开始读取binlog，位置：{}:{}", client.getBinlogFilename(), client.getBinlogPosition());
+    }
+
+    private void onEvent(Event event, Consumer<ChangeEvent> sink)
+    {
+        EventType type = event.getHeader().getEventType();
+        if (type == EventType.ROTATE)
+        {
+            binlogFilename = ((RotateEventData) event.getData()).getBinlogFilename();
+            return;
+        }
+        if (type == EventType.XID || type == EventType.QUERY)
+        {
+            // 事务提交点或DDL，之后的位置可以安全地作为重启位置
+            committedPosition = binlogFilename + ":" + ((EventHeaderV4) event.getHeader()).getNextPosition();
+            return;
+        }
+        if (type == EventType.TABLE_MAP)
+        {
+            TableMapEventData data = event.getData();
+            tableMaps.put(data.getTableId(), data);
+            return;
+        }
+        if (EventType.isWrite(type))
+        {
+            WriteRowsEventData data = event.getData();
+            String table = tableOf(data.getTableId());
+            if (table != null)
+            {
+                for (Serializable[] row : data.getRows())
+                {
+                    sink.accept(new ChangeEvent(table, ChangeEvent.Type.INSERT, null, toMap(table, row)
+                            , committedPosition));
+                }
+            }
+        }
+        else if (EventType.isUpdate(type))
+        {
+            UpdateRowsEventData data = event.getData();
+            String table = tableOf(data.getTableId());
+            if (table != null)
+            {
+                for (Map.Entry<Serializable[], Serializable[]> row : data.getRows())
+                {
+                    sink.accept(new ChangeEvent(table, ChangeEvent.Type.UPDATE, toMap(table, row.getKey())
+                            , toMap(table, row.getValue()), committedPosition));
+                }
+            }
+        }
+        else if (EventType.isDelete(type))
+        {
+            DeleteRowsEventData data = event.getData();
+            String table = tableOf(data.getTableId());
+            if (table != null)
+            {
+                for (Serializable[] row : data.getRows())
+                {
+                    sink.accept(new ChangeEvent(table, ChangeEvent.Type.DELETE, toMap(table, row), null
+                            , committedPosition));
+                }
+            }
+        }
+    }
+
+    /**
+     * 返回需要关注的表名，其他库和表返回null
+     */
+    private String tableOf(long tableId)
+    {
+        TableMapEventData tableMap = tableMaps.get(tableId);
+        if (tableMap == null || !database.equals(tableMap.getDatabase()) || !tables.contains(tableMap.getTable()))
+        {
+            return null;
+        }
+        List<String> names = columns.get(tableMap.getTable());
+        if (names == null || names.size() != tableMap.getColumnTypes().length)
+        {
+            // 第一次读取该表或者表结构发生了变化，重新查询列名
+            names = jdbcTemplate.queryForList("SELECT COLUMN_NAME FROM information_schema.COLUMNS " +
+                    "WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? ORDER BY ORDINAL_POSITION"
+                    , String.class, database, tableMap.getTable());
+            columns.put(tableMap.getTable(), names);
+        }
+        return tableMap.getTable();
+    }
+
+    private Map<String, Object> toMap(String table, Serializable[] row)
+    {
+        List<String> names = columns.get(table);
+        Map<String, Object> map = new HashMap<>(names.size() * 2);
+        for (int i = 0; i < row.length && i < names.size(); i++)
+        {
+            Object value = row[i];
+            if (value instanceof byte[])
+            {
+                value = new String((byte[]) value, StandardCharsets.UTF_8);
+            }
+            map.put(names.get(i), value);
+        }
+        return map;
+    }
+
+    private void loadPosition()
+    {
+        try {
+            if (!Files.exists(positionFile))
+            {
+                // 没有记录时从当前最新的位置开始
+                return;
+            }
+            String position = new String(Files.readAllBytes(positionFile), StandardCharsets.UTF_8).trim();
+            int index = position.lastIndexOf(':');
+            binlogFilename = position.substring(0, index);
+            committedPosition = position;
+            client.setBinlogFilename(binlogFilename);
+            client.setBinlogPosition(Long.parseLong(position.substring(index + 1)));
+        } catch (IOException e) {
+            throw new IllegalStateException("读取binlog位置失败", e);
+        }
+    }
+
+    @Override
+    public void acknowledge(String position)
+    {
+        if (position == null)
+        {
+            return;
+        }
+        try {
+            Path tmp = Paths.get(positionFile + ".tmp");
+            Files.write(tmp, position.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("保存binlog位置失败：{}", position, e);
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        try {
+            client.disconnect();
+        } catch (IOException e) {
+            log.warn("断开binlog连接失败", e);
+        }
+    }
+}
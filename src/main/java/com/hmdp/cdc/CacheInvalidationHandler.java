@@ -0,0 +1,94 @@
+package com.hmdp.cdc;
+
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.VoucherMapper;
+import com.hmdp.utils.BloomFilterManager;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.RedisConstants;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 根据数据变更删除Redis缓存、接口响应缓存，并把新增的id加入布隆过滤器
+ * 一批变更中的Key合并后只删除一次
+ */
+@Component
+@Order(1)
+public class CacheInvalidationHandler implements ChangeEventHandler
+{
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private VoucherMapper voucherMapper;
+
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
+    @Override
+    public void handle(List<ChangeEvent> events)
+    {
+        Set<String> keys = new LinkedHashSet<>();
+        Set<String> paths = new LinkedHashSet<>();
+        Set<Long> seckillVoucherIds = new LinkedHashSet<>();
+        for (ChangeEvent event : events)
+        {
+            switch (event.getTable())
+            {
+                case "tb_shop":
+                    Long shopId = event.longValue("id");
+                    keys.add(RedisConstants.CACHE_SHOP_KEY + shopId);
+                    paths.add("/shop/" + shopId);
+                    if (event.getType() == ChangeEvent.Type.INSERT)
+                    {
+                        bloomFilterManager.putLocal(BloomFilterManager.SHOP, shopId);
+                    }
+                    break;
+                case "tb_voucher":
+                    // 优惠券换了店铺时，新旧两个店铺的列表都要失效
+                    addVoucherListOf(event.beforeLong("shop_id"), keys, paths);
+                    addVoucherListOf(event.afterLong("shop_id"), keys, paths);
+                    if (event.getType() == ChangeEvent.Type.INSERT)
+                    {
+                        bloomFilterManager.putLocal(BloomFilterManager.VOUCHER, event.longValue("id"));
+                    }
+                    break;
+                case "tb_seckill_voucher":
+                    // 库存以Redis为准，只有秒杀时间变化时才需要失效
+                    if (event.changed("begin_time") || event.changed("end_time"))
+                    {
+                        seckillVoucherIds.add(event.longValue("voucher_id"));
+                    }
+                    break;
+                case "tb_blog":
+                    paths.add("/blog/hot");
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!seckillVoucherIds.isEmpty())
+        {
+            for (Voucher voucher : voucherMapper.selectBatchIds(seckillVoucherIds))
+            {
+                addVoucherListOf(voucher.getShopId(), keys, paths);
+            }
+        }
+        cacheInvalidator.delete(keys);
+        cacheInvalidator.evictResponse(paths.toArray(new String[0]));
+    }
+
+    private static void addVoucherListOf(Long shopId, Set<String> keys, Set<String> paths)
+    {
+        if (shopId != null)
+        {
+            keys.add(RedisConstants.CACHE_VOUCHER_SHOP_KEY + shopId);
+            paths.add("/voucher/list/" + shopId);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.hmdp.cdc;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 一行数据的变更，before和after分别是变更前后的整行数据，插入时before为null，删除时after为null
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangeEvent
+{
+
+    public enum Type
+    {
+        INSERT, UPDATE, DELETE
+    }
+
+    /**
+     * 表名，例如tb_shop
+     */
+    private String table;
+
+    private Type type;
+
+    private Map<String, Object> before;
+
+    private Map<String, Object> after;
+
+    /**
+     * 事件在数据源中的位置，处理完成后用于确认，重启后从该位置继续读取
+     */
+    private String position;
+
+    /**
+     * 读取某一列的值，优先读取变更后的数据
+     */
+    public Object value(String column)
+    {
+        if (after != null && after.containsKey(column))
+        {
+            return after.get(column);
+        }
+        return before == null ? null : before.get(column);
+    }
+
+    public Long longValue(String column)
+    {
+        return toLong(value(column));
+    }
+
+    public Long beforeLong(String column)
+    {
+        return before == null ? null : toLong(before.get(column));
+    }
+
+    public Long afterLong(String column)
+    {
+        return after == null ? null : toLong(after.get(column));
+    }
+
+    /**
+     * 更新事件中某一列是否发生了变化，插入和删除都视为变化
+     */
+    public boolean changed(String column)
+    {
+        if (before == null || after == null)
+        {
+            return true;
+        }
+        return !Objects.equals(String.valueOf(before.get(column)), String.valueOf(after.get(column)));
+    }
+
+    private static Long toLong(Object value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        if (value instanceof Number)
+        {
+            return ((Number) value).longValue();
+        }
+        return Long.valueOf(value.toString());
+    }
+}
@@ -0,0 +1,120 @@
+package com.hmdp.cdc;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从数据源读取变更，成批依次交给各个处理阶段
+ * 只有一个处理线程，保证变更按数据源中的顺序处理；队列满时阻塞数据源的读取线程
+ * 一批变更在所有阶段处理完成后才确认位置，某个阶段失败时退避后重试该阶段，不会跳过变更
+ */
+@Slf4j
+public class ChangeEventDispatcher
+{
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final ChangeEventSource source;
+
+    private final List<ChangeEventHandler> handlers;
+
+    private final BlockingQueue<ChangeEvent> queue;
+
+    private final int batchSize;
+
+    private volatile boolean running;
+
+    private Thread worker;
+
+    public ChangeEventDispatcher(ChangeEventSource source, List<ChangeEventHandler> handlers
+            , int queueCapacity, int batchSize)
+    {
+        this.source = source;
+        this.handlers = handlers;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+    }
+
+    public void start()
+    {
+        running = true;
+        worker = new Thread(this::dispatchLoop, "change-event-dispatcher");
+        worker.setDaemon(true);
+        worker.start();
+        source.start(event -> {
+            try {
+                queue.put(event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void dispatchLoop()
+    {
+        List<ChangeEvent> batch = new ArrayList<>(batchSize);
+        while (running)
+        {
+            try {
+                ChangeEvent first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                for (ChangeEventHandler handler : handlers)
+                {
+                    handleWithRetry(handler, batch);
+                }
+                source.acknowledge(lastPosition(batch));
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void handleWithRetry(ChangeEventHandler handler, List<ChangeEvent> batch) throws InterruptedException
+    {
+        long backoff = 100;
+        while (true)
+        {
+            try {
+                handler.handle(batch);
+                return;
+            } catch (Exception e) {
+                log.error("处理变更失败，{}ms后重试，处理阶段：{}", backoff, handler.getClass().getSimpleName(), e);
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private static String lastPosition(List<ChangeEvent> batch)
+    {
+        for (int i = batch.size() - 1; i >= 0; i--)
+        {
+            if (batch.get(i).getPosition() != null)
+            {
+                return batch.get(i).getPosition();
+            }
+        }
+        return null;
+    }
+
+    public void stop()
+    {
+        source.stop();
+        running = false;
+        if (worker != null)
+        {
+            worker.interrupt();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.hmdp.cdc;
+
+import java.util.List;
+
+/**
+ * 变更处理阶段，按数据源中的顺序成批接收变更
+ * 处理失败时会用同一批变更重试，因此处理逻辑需要是幂等的
+ */
+public interface ChangeEventHandler
+{
+
+    void handle(List<ChangeEvent> events);
+}
@@ -0,0 +1,23 @@
+package com.hmdp.cdc;
+
+import java.util.function.Consumer;
+
+/**
+ * 数据变更的来源，可以是MySQL的binlog，也可以是本地可重放的变更日志
+ */
+public interface ChangeEventSource
+{
+
+    /**
+     * 开始读取变更，从上次确认的位置继续，每读到一条变更调用一次sink
+     * sink可能阻塞，用于在处理跟不上时反压数据源
+     */
+    void start(Consumer<ChangeEvent> sink);
+
+    /**
+     * 确认该位置及之前的变更已经处理完成
+     */
+    void acknowledge(String position);
+
+    void stop();
+}
@@ -0,0 +1,164 @@
+package com.hmdp.cdc;
+
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * 本地可重放的变更日志，每行一条JSON格式的ChangeEvent，用于测试和手工补发变更
+ * 持续读取文件中追加的内容，位置是已读取的字节数，删除位置文件即可从头重放
+ */
+@Slf4j
+public class ChangeLogFileSource implements ChangeEventSource
+{
+    private static final long POLL_INTERVAL_MILLIS = 200;
+
+    private final Path file;
+
+    private final Path positionFile;
+
+    private volatile boolean running;
+
+    private Thread reader;
+
+    public ChangeLogFileSource(String file)
+    {
+        this.file = Paths.get(file);
+        this.positionFile = Paths.get(file + ".position");
+    }
+
+    /**
+     * 向变更日志追加一条变更
+     */
+    public static void append(Path file, ChangeEvent event) throws IOException
+    {
+        event.setPosition(null);
+        Files.write(file, (JSONUtil.toJsonStr(event) + "\n").getBytes(StandardCharsets.UTF_8)
+                , StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void start(Consumer<ChangeEvent> sink)
+    {
+        try {
+            Files.createDirectories(positionFile.toAbsolutePath().getParent());
+        } catch (IOException e) {
+            throw new IllegalStateException("创建变更日志的目录失败", e);
+        }
+        running = true;
+        reader = new Thread(() -> read(sink), "change-log-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void read(Consumer<ChangeEvent> sink)
+    {
+        long offset = loadPosition();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (running)
+        {
+            try {
+                if (!Files.exists(file))
+                {
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                    continue;
+                }
+                int read;
+                try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r"))
+                {
+                    raf.seek(offset + line.size());
+                    read = raf.read(buffer);
+                }
+                if (read <= 0)
+                {
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                    continue;
+                }
+                for (int i = 0; i < read; i++)
+                {
+                    if (buffer[i] != '\n')
+                    {
+                        line.write(buffer[i]);
+                        continue;
+                    }
+                    // 读到完整的一行，位置移动到下一行开头
+                    offset += line.size() + 1;
+                    String json = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+                    line.reset();
+                    if (!json.isEmpty())
+                    {
+                        ChangeEvent event = JSONUtil.toBean(json, ChangeEvent.class);
+                        event.setPosition(String.valueOf(offset));
+                        sink.accept(event);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("读取变更日志失败，位置：{}", offset, e);
+                line.reset();
+                sleepQuietly();
+            }
+        }
+    }
+
+    private long loadPosition()
+    {
+        try {
+            if (Files.exists(positionFile))
+            {
+                return Long.parseLong(new String(Files.readAllBytes(positionFile), StandardCharsets.UTF_8).trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("读取变更日志位置失败，从头开始读取", e);
+        }
+        return 0;
+    }
+
+    @Override
+    public void acknowledge(String position)
+    {
+        if (position == null)
+        {
+            return;
+        }
+        try {
+            Path tmp = Paths.get(positionFile + ".tmp");
+            Files.write(tmp, position.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("保存变更日志位置失败：{}", position, e);
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+        if (reader != null)
+        {
+            reader.interrupt();
+        }
+    }
+
+    private void sleepQuietly()
+    {
+        try {
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.cdc;
+
+import com.hmdp.utils.RedisConstants;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 根据店铺的变更维护shop:geo:{typeId}中的坐标，一批变更用一次Pipeline写入
+ */
+@Component
+@Order(2)
+public class ShopGeoHandler implements ChangeEventHandler
+{
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Override
+    public void handle(List<ChangeEvent> events)
+    {
+        List<ChangeEvent> shopEvents = new ArrayList<>();
+        for (ChangeEvent event : events)
+        {
+            if ("tb_shop".equals(event.getTable())
+                    && (event.changed("type_id") || event.changed("x") || event.changed("y")))
+            {
+                shopEvents.add(event);
+            }
+        }
+        if (shopEvents.isEmpty())
+        {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            // 按顺序执行，同一店铺的多次变更以最后一次为准
+            for (ChangeEvent event : shopEvents)
+            {
+                String member = String.valueOf(event.longValue("id"));
+                if (event.getBefore() != null && (event.getAfter() == null || event.changed("type_id")))
+                {
+                    conn.zRem(RedisConstants.SHOP_GEO_KEY + event.beforeLong("type_id"), member);
+                }
+                if (event.getAfter() != null)
+                {
+                    Object x = event.getAfter().get("x");
+                    Object y = event.getAfter().get("y");
+                    if (x instanceof Number && y instanceof Number)
+                    {
+                        conn.geoAdd(RedisConstants.SHOP_GEO_KEY + event.afterLong("type_id")
+                                , new Point(((Number) x).doubleValue(), ((Number) y).doubleValue()), member);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,45 @@
+package com.hmdp.cdc;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.ShopSearchIndex;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 根据店铺的变更维护搜索索引，其他服务和手工修改的数据也能被搜索到
+ */
+@Component
+@Order(3)
+public class ShopSearchIndexHandler implements ChangeEventHandler
+{
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    @Override
+    public void handle(List<ChangeEvent> events)
+    {
+        for (ChangeEvent event : events)
+        {
+            if (!"tb_shop".equals(event.getTable()))
+            {
+                continue;
+            }
+            if (event.getType() == ChangeEvent.Type.DELETE)
+            {
+                shopSearchIndex.remove(event.longValue("id"));
+            }
+            else if (event.changed("name") || event.changed("area") || event.changed("score")
+                    || event.changed("sold"))
+            {
+                // 列名是下划线格式，转换成驼峰格式的属性
+                shopSearchIndex.index(BeanUtil.mapToBean(event.getAfter(), Shop.class, true
+                        , CopyOptions.create().setIgnoreError(true)));
+            }
+        }
+    }
+}
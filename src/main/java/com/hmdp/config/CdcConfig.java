@@ -0,0 +1,66 @@
+package com.hmdp.config;
+
+import com.hmdp.cdc.BinlogChangeEventSource;
+import com.hmdp.cdc.ChangeEventDispatcher;
+import com.hmdp.cdc.ChangeEventHandler;
+import com.hmdp.cdc.ChangeEventSource;
+import com.hmdp.cdc.ChangeLogFileSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 数据变更订阅，hmdp.cdc.mode为binlog时读取MySQL的binlog，为file时读取本地变更日志，不配置时不开启
+ * 每个节点都需要开启，接口响应缓存和布隆过滤器都在节点本地；读取binlog时每个节点需要配置不同的server-id，没有配置时启动失败
+ * 读取位置需要在重启后保留，默认放在工作目录的data目录下
+ */
+@Configuration
+@ConditionalOnProperty(name = "hmdp.cdc.mode")
+public class CdcConfig
+{
+    @Bean
+    @ConditionalOnProperty(name = "hmdp.cdc.mode", havingValue = "binlog")
+    public ChangeEventSource binlogChangeEventSource(JdbcTemplate jdbcTemplate
+            , @Value("${hmdp.cdc.binlog.host:localhost}") String host
+            , @Value("${hmdp.cdc.binlog.port:3306}") int port
+            , @Value("${hmdp.cdc.binlog.username:${spring.datasource.username:root}}") String username
+            , @Value("${hmdp.cdc.binlog.password:${spring.datasource.password:}}") String password
+            , @Value("${hmdp.cdc.binlog.server-id:0}") long serverId
+            , @Value("${hmdp.cdc.binlog.database:hmdp}") String database
+            , @Value("${hmdp.cdc.binlog.tables:tb_shop,tb_voucher,tb_seckill_voucher,tb_blog}") String[] tables
+            , @Value("${hmdp.cdc.binlog.position-file:data/binlog.position}") String positionFile)
+    {
+        if (serverId <= 0)
+        {
+            // 多个节点使用相同的server-id时，MySQL会断开之前的连接
+            throw new IllegalStateException("读取binlog时需要为每个节点配置不同的hmdp.cdc.binlog.server-id");
+        }
+        return new BinlogChangeEventSource(host, port, username, password, serverId, database
+                , new HashSet<>(Arrays.asList(tables)), positionFile, jdbcTemplate);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "hmdp.cdc.mode", havingValue = "file")
+    public ChangeEventSource changeLogFileSource(@Value("${hmdp.cdc.file:data/change.log}") String file)
+    {
+        return new ChangeLogFileSource(file);
+    }
+
+    /**
+     * 处理阶段按@Order排序，依次执行
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public ChangeEventDispatcher changeEventDispatcher(ChangeEventSource changeEventSource
+            , List<ChangeEventHandler> handlers
+            , @Value("${hmdp.cdc.queue-capacity:10000}") int queueCapacity
+            , @Value("${hmdp.cdc.batch-size:500}") int batchSize)
+    {
+        return new ChangeEventDispatcher(changeEventSource, handlers, queueCapacity, batchSize);
+    }
+}
@@ -2,8 +2,12 @@ package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.ResponseCacheInterceptor;
+import com.hmdp.utils.ResponseCacheManager;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -15,6 +19,22 @@ public class MVCConfig implements WebMvcConfigurer
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ResponseCacheManager responseCacheManager;
+
+    /**
+     * 异步接口的超时时间，由AsyncRequestExecutor按该时间结束任务并决定返回内容
+     */
+    @Value("${hmdp.async.timeout-ms:10000}")
+    private long asyncTimeoutMillis;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer)
+    {
+        // 多留一秒，先由AsyncRequestExecutor处理超时；超过该时间仍未返回时由WebExceptionAdvice返回503
+        configurer.setDefaultTimeout(asyncTimeoutMillis + 1000);
+    }
+
     @Override
     public void addInterceptors(InterceptorRegistry registry)
     {
@@ -23,13 +43,17 @@ public class MVCConfig implements WebMvcConfigurer
                         "/shop/**",
                         "/voucher/**",
                         "/shop-type/**",
-                        "/upload/**",
+                        "/imgs/**",
                         "/blog/hot",
                         "/user/code",
-                        "/user/login"
+                        "/user/login",
+                        "/actuator/**"
                 ).order(1);
         // token刷新的拦截器
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**")
                 .order(0);
+        // 公共只读接口的响应缓存拦截器，只处理标记了CacheResponse的接口
+        registry.addInterceptor(new ResponseCacheInterceptor(responseCacheManager)).addPathPatterns("/**")
+                .order(2);
     }
 }
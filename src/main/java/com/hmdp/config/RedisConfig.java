@@ -1,22 +1,196 @@
 package com.hmdp.config;
 
+import cn.hutool.core.util.StrUtil;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.TimeoutOptions;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import lombok.extern.slf4j.Slf4j;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
+import org.redisson.config.BaseConfig;
+import org.redisson.config.ClusterServersConfig;
 import org.redisson.config.Config;
+import org.redisson.config.SentinelServersConfig;
+import org.redisson.config.SingleServerConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.LettuceClientConfigurationBuilderCustomizer;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Redis客户端的统一配置，Lettuce和Redisson都使用spring.redis.*中的地址、密码和拓扑
+ * 配置了spring.redis.cluster.nodes时使用集群，配置了spring.redis.sentinel.master时使用哨兵，否则使用单节点
+ * Redisson的连接池大小默认与Lettuce的连接池一致，默认值见redis.properties，application.yaml中的配置优先
+ */
+@Slf4j
 @Configuration
+@PropertySource("classpath:redis.properties")
 public class RedisConfig
 {
+    @Resource
+    private RedisProperties redisProperties;
+
+    @Resource
+    private RedisConnectionFactory redisConnectionFactory;
+
+    /**
+     * Pipeline中累积多少条命令后发送一次，0表示每条命令立即发送
+     */
+    @Value("${hmdp.redis.pipelining-flush-threshold}")
+    private int pipeliningFlushThreshold;
+
+    @PostConstruct
+    public void init()
+    {
+        if (pipeliningFlushThreshold > 0 && redisConnectionFactory instanceof LettuceConnectionFactory)
+        {
+            // 批量写缓存、刷计数等使用executePipelined的批处理，命令攒够一批再写到socket，减少系统调用
+            ((LettuceConnectionFactory) redisConnectionFactory).setPipeliningFlushPolicy(
+                    LettuceConnection.PipeliningFlushPolicy.buffered(pipeliningFlushThreshold));
+        }
+    }
+
+    /**
+     * Lettuce的命令队列上限，超过时新命令直接失败，不在Redis变慢时无限堆积；0表示使用默认配置
+     * 创建连接工厂时就需要，定义为静态方法，不依赖本配置类的实例
+     */
     @Bean
-    public RedissonClient redissonClient()
+    public static LettuceClientConfigurationBuilderCustomizer lettuceClientTuning(RedisProperties redisProperties
+            , @Value("${hmdp.redis.request-queue-size}") int requestQueueSize)
+    {
+        return builder -> {
+            if (requestQueueSize <= 0)
+            {
+                return;
+            }
+            // 覆盖了Spring Boot生成的ClientOptions，需要保留其中的超时和集群拓扑刷新配置
+            ClientOptions.Builder options;
+            if (redisProperties.getCluster() != null)
+            {
+                ClusterTopologyRefreshOptions.Builder refresh = ClusterTopologyRefreshOptions.builder();
+                RedisProperties.Lettuce.Cluster.Refresh properties = redisProperties.getLettuce().getCluster().getRefresh();
+                if (properties.isAdaptive())
+                {
+                    refresh.enableAllAdaptiveRefreshTriggers();
+                }
+                if (properties.getPeriod() != null)
+                {
+                    refresh.enablePeriodicRefresh(properties.getPeriod());
+                }
+                options = ClusterClientOptions.builder().topologyRefreshOptions(refresh.build());
+            }
+            else
+            {
+                options = ClientOptions.builder();
+            }
+            builder.clientOptions(options.timeoutOptions(TimeoutOptions.enabled())
+                    .requestQueueSize(requestQueueSize)
+                    .disconnectedBehavior(ClientOptions.DisconnectedBehavior.REJECT_COMMANDS)
+                    .build());
+        };
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public RedissonClient redissonClient(@Value("${hmdp.redis.redisson.pool-size}") int poolSize
+            , @Value("${hmdp.redis.redisson.min-idle}") int minIdle
+            , @Value("${hmdp.redis.redisson.subscription-pool-size}") int subscriptionPoolSize)
     {
         // 配置类
         Config config = new Config();
-        // 添加Redis地址，这里添加了单节点的地址，也可以使用config.useClusterServers()添加集群地址
-        config.useSingleServer().setAddress("redis://localhost:6379").setPassword("123456");
+        String scheme = redisProperties.isSsl() ? "rediss://" : "redis://";
+        String password = redisProperties.getPassword();
+        BaseConfig<?> base;
+        if (redisProperties.getCluster() != null)
+        {
+            ClusterServersConfig cluster = config.useClusterServers()
+                    .setMasterConnectionPoolSize(poolSize)
+                    .setMasterConnectionMinimumIdleSize(minIdle)
+                    .setSlaveConnectionPoolSize(poolSize)
+                    .setSlaveConnectionMinimumIdleSize(minIdle)
+                    .setSubscriptionConnectionPoolSize(subscriptionPoolSize);
+            for (String node : redisProperties.getCluster().getNodes())
+            {
+                cluster.addNodeAddress(scheme + node.trim());
+            }
+            base = cluster;
+        }
+        else if (redisProperties.getSentinel() != null)
+        {
+            SentinelServersConfig sentinel = config.useSentinelServers()
+                    .setMasterName(redisProperties.getSentinel().getMaster())
+                    .setDatabase(redisProperties.getDatabase())
+                    .setMasterConnectionPoolSize(poolSize)
+                    .setMasterConnectionMinimumIdleSize(minIdle)
+                    .setSlaveConnectionPoolSize(poolSize)
+                    .setSlaveConnectionMinimumIdleSize(minIdle)
+                    .setSubscriptionConnectionPoolSize(subscriptionPoolSize);
+            List<String> nodes = redisProperties.getSentinel().getNodes();
+            for (String node : nodes)
+            {
+                sentinel.addSentinelAddress(scheme + node.trim());
+            }
+            base = sentinel;
+        }
+        else
+        {
+            String address = scheme + redisProperties.getHost() + ":" + redisProperties.getPort();
+            if (StrUtil.isNotBlank(redisProperties.getUrl()))
+            {
+                // spring.redis.url优先，格式为redis://[:password@]host:port
+                URI uri = URI.create(redisProperties.getUrl());
+                address = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+                if (uri.getUserInfo() != null)
+                {
+                    password = StrUtil.subAfter(uri.getUserInfo(), ":", false);
+                }
+            }
+            SingleServerConfig single = config.useSingleServer()
+                    .setAddress(address)
+                    .setDatabase(redisProperties.getDatabase())
+                    .setConnectionPoolSize(poolSize)
+                    .setConnectionMinimumIdleSize(minIdle)
+                    .setSubscriptionConnectionPoolSize(subscriptionPoolSize);
+            base = single;
+        }
+        if (StrUtil.isNotBlank(password))
+        {
+            base.setPassword(password);
+        }
+        Duration timeout = redisProperties.getTimeout();
+        if (timeout != null)
+        {
+            base.setTimeout((int) timeout.toMillis());
+        }
+        if (StrUtil.isNotBlank(redisProperties.getClientName()))
+        {
+            base.setClientName(redisProperties.getClientName());
+        }
+        log.info("Redisson连接池大小：{}，最小空闲连接数：{}", poolSize, minIdle);
         // 创建客户端
         return Redisson.create(config);
     }
+
+    /**
+     * Redis消息订阅的容器，用于可重入锁等待解锁通知
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory)
+    {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
 }
@@ -0,0 +1,71 @@
+package com.hmdp.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheResponse;
+import com.hmdp.utils.ResponseCacheInterceptor;
+import com.hmdp.utils.ResponseCacheManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 对标记了CacheResponse的接口，在响应写出前把编码好的JSON字节保存到ResponseCacheManager
+ */
+@Slf4j
+@RestControllerAdvice
+public class ResponseCacheAdvice implements ResponseBodyAdvice<Object>
+{
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private ResponseCacheManager responseCacheManager;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType)
+    {
+        return returnType.hasMethodAnnotation(CacheResponse.class)
+                && MappingJackson2HttpMessageConverter.class.isAssignableFrom(converterType);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType
+            , Class<? extends HttpMessageConverter<?>> selectedConverterType
+            , ServerHttpRequest request, ServerHttpResponse response)
+    {
+        if (!(body instanceof Result) || !Boolean.TRUE.equals(((Result) body).getSuccess())
+                || !(request instanceof ServletServerHttpRequest))
+        {
+            return body;
+        }
+        HttpServletRequest servletRequest = ((ServletServerHttpRequest) request).getServletRequest();
+        Object version = servletRequest.getAttribute(ResponseCacheInterceptor.VERSION_ATTRIBUTE);
+        if (!(version instanceof Long))
+        {
+            return body;
+        }
+        CacheResponse cacheResponse = returnType.getMethodAnnotation(CacheResponse.class);
+        try {
+            byte[] bytes = objectMapper.writeValueAsBytes(body);
+            ResponseCacheManager.CachedResponse cached = responseCacheManager.put(servletRequest, (Long) version
+                    , bytes, cacheResponse.unit().toMillis(cacheResponse.ttl()), cacheResponse.gzip());
+            response.getHeaders().setETag(cached.getEtag());
+            response.getHeaders().setCacheControl("no-cache");
+        } catch (JsonProcessingException e) {
+            log.warn("缓存响应序列化失败", e);
+        }
+        return body;
+    }
+}
@@ -0,0 +1,13 @@
+package com.hmdp.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+
+/**
+ * 定时任务线程池的默认配置，application.yaml中的配置优先
+ */
+@Configuration
+@PropertySource("classpath:scheduling.properties")
+public class SchedulingConfig
+{
+}
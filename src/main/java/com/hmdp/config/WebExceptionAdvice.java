@@ -2,13 +2,34 @@ package com.hmdp.config;
 
 import com.hmdp.dto.Result;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @RestControllerAdvice
 public class WebExceptionAdvice {
 
+    @ExceptionHandler(RejectedExecutionException.class)
+    public Result handleRejectedExecutionException(RejectedExecutionException e) {
+        log.warn("请求被拒绝：{}", e.getMessage());
+        return Result.fail("服务繁忙，请稍后再试");
+    }
+
+    /**
+     * 异步接口超时，返回503
+     */
+    @ExceptionHandler(AsyncRequestTimeoutException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public Result handleAsyncRequestTimeoutException(AsyncRequestTimeoutException e) {
+        log.warn("异步请求超时");
+        return Result.fail("服务繁忙，请稍后再试");
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public Result handleRuntimeException(RuntimeException e) {
         log.error(e.toString(), e);
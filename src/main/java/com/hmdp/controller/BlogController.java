@@ -1,19 +1,28 @@
 package com.hmdp.controller;
 
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.AsyncRequestExecutor;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheResponse;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -31,24 +40,19 @@ public class BlogController {
     private IBlogService blogService;
     @Resource
     private IUserService userService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private AsyncRequestExecutor asyncRequestExecutor;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
-        // 获取登录用户
-        UserDTO user = UserHolder.getUser();
-        blog.setUserId(user.getId());
-        // 保存探店博文
-        blogService.save(blog);
-        // 返回id
-        return Result.ok(blog.getId());
+        return blogService.saveBlog(blog);
     }
 
     @PutMapping("/like/{id}")
     public Result likeBlog(@PathVariable("id") Long id) {
-        // 修改点赞数量
-        blogService.update()
-                .setSql("liked = liked + 1").eq("id", id).update();
-        return Result.ok();
+        return blogService.likeBlog(id);
     }
 
     @GetMapping("/of/me")
@@ -64,19 +68,32 @@ public class BlogController {
     }
 
     @GetMapping("/hot")
-    public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+    @CacheResponse(ttl = 10)
+    public CompletableFuture<Result> queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
+        return asyncRequestExecutor.supply(() -> hotBlogs(current));
+    }
+
+    private Result hotBlogs(Integer current) {
         // 根据用户查询
         Page<Blog> page = blogService.query()
                 .orderByDesc("liked")
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
+        // 批量查询用户，一次MGET，未命中的用户一次查询数据库
+        List<Long> userIds = records.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = cacheClient.queryManyWithPassThrough(RedisConstants.CACHE_USER_KEY, userIds
+                , UserDTO.class, ids -> userService.listByIds(ids).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList())
+                , UserDTO::getId, RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES)
+                .stream().collect(Collectors.toMap(UserDTO::getId, Function.identity()));
         records.forEach(blog ->{
-            Long userId = blog.getUserId();
-            User user = userService.getById(userId);
-            blog.setName(user.getNickName());
-            blog.setIcon(user.getIcon());
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null)
+            {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
         });
         return Result.ok(records);
     }
@@ -0,0 +1,213 @@
+package com.hmdp.controller;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.BlobStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 直接从图片存储中读取图片，单机部署和测试时不需要额外的nginx
+ * Tomcat支持sendfile时（NIO/NIO2/APR连接器、没有使用HTTPS）一律交给Tomcat用sendfile发送，图片内容不经过JVM
+ * 不支持时只能通过Servlet输出流发送，内容会按块复制到堆内的缓冲区中；此时热门的小缩略图缓存在堆外内存中，省去读盘
+ * 文件按内容命名，内容不会变化，因此可以让浏览器长期缓存
+ */
+@Slf4j
+@Controller
+@RequestMapping("/imgs")
+public class ImageController {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    @Resource
+    private BlobStore blobStore;
+
+    /**
+     * 不支持sendfile时缓存在堆外内存中的小缩略图，0表示不缓存
+     */
+    @Value("${hmdp.image.cache-bytes:0}")
+    private long cacheBytes;
+
+    @Value("${hmdp.image.cache-max-file-size:65536}")
+    private long cacheMaxFileSize;
+
+    private final LruCache hotThumbnails = new LruCache();
+
+    @GetMapping("/**")
+    public void image(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String name = StrUtil.removePrefix(request.getRequestURI().substring(request.getContextPath().length()), "/imgs");
+        Path path;
+        try {
+            path = blobStore.resolve(name);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!Files.isRegularFile(path)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long length = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        // 文件名就是内容的摘要，直接作为ETag
+        String etag = "\"" + StrUtil.subBefore(path.getFileName().toString(), ".", true) + "\"";
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+        response.setContentType(MediaTypeFactory.getMediaType(path.getFileName().toString())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+
+        // 解析Range，只支持单个区间，多个区间时返回整个文件
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && range.startsWith("bytes=") && !range.contains(",")
+                && (ifRange == null || ifRange.equals(etag))) {
+            long[] r = parseRange(range.substring(6).trim(), length);
+            if (r == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            start = r[0];
+            end = r[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 由Tomcat在请求处理完成后用sendfile发送，缩略图同样走sendfile，热门文件由操作系统的页缓存保留
+            request.setAttribute(SENDFILE_FILENAME, path.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        // 以下通过Servlet输出流发送，输出流只接受byte[]，每一块内容都会复制到堆内
+        // 热门的小缩略图从堆外缓存读取，不再读盘
+        if (cacheBytes > 0 && length <= cacheMaxFileSize && name.startsWith("/thumbs/")) {
+            ByteBuffer cached = hotThumbnails.get(name, path, length);
+            ByteBuffer slice = cached.duplicate();
+            slice.position((int) start).limit((int) (end + 1));
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            while (slice.hasRemaining()) {
+                out.write(slice);
+            }
+            return;
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                position += file.transferTo(position, end + 1 - position, out);
+            }
+        }
+    }
+
+    /**
+     * 解析 start-end、start- 和 -suffix 三种格式，返回闭区间，无法满足时返回null
+     */
+    private static long[] parseRange(String spec, long length) {
+        int dash = spec.indexOf('-');
+        if (dash < 0 || length == 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 最后suffix个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start < 0 || start > end || start >= length) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按总字节数淘汰的LRU缓存，缓存内容保存在堆外内存中
+     */
+    private class LruCache {
+
+        private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+        private long size;
+
+        ByteBuffer get(String name, Path path, long length) throws IOException {
+            synchronized (this) {
+                ByteBuffer cached = entries.get(name);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) length);
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (buffer.hasRemaining() && file.read(buffer) >= 0) {
+                    // 读满为止
+                }
+            }
+            buffer.flip();
+            synchronized (this) {
+                ByteBuffer old = entries.put(name, buffer);
+                size += buffer.capacity() - (old == null ? 0 : old.capacity());
+                // 超过容量时淘汰最久没有访问的缩略图
+                Iterator<Map.Entry<String, ByteBuffer>> it = entries.entrySet().iterator();
+                while (size > cacheBytes && it.hasNext()) {
+                    Map.Entry<String, ByteBuffer> eldest = it.next();
+                    if (!eldest.getKey().equals(name)) {
+                        size -= eldest.getValue().capacity();
+                        it.remove();
+                    }
+                }
+            }
+            return buffer;
+        }
+    }
+}
@@ -2,14 +2,22 @@ package com.hmdp.controller;
 
 
 import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.AsyncRequestExecutor;
+import com.hmdp.utils.CacheResponse;
+import com.hmdp.utils.ReactiveAdmission;
+import com.hmdp.utils.ShopSearchIndex;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -26,15 +34,29 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    @Resource
+    private AsyncRequestExecutor asyncRequestExecutor;
+
+    @Resource
+    private ReactiveAdmission reactiveAdmission;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id)
+    @CacheResponse(ttl = 30)
+    public CompletableFuture<Result> queryShopById(@PathVariable("id") Long id)
     {
-        return shopService.queryById(id);
+        if (reactiveAdmission.isEnabled())
+        {
+            return reactiveAdmission.admit(() -> shopService.queryByIdReactive(id));
+        }
+        return asyncRequestExecutor.supply(() -> shopService.queryById(id));
     }
 
     /**
@@ -45,9 +67,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -72,10 +92,10 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
+        // 根据类型分页查询，不需要总条数，关闭COUNT查询
         Page<Shop> page = shopService.query()
                 .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
         // 返回数据
         return Result.ok(page.getRecords());
     }
@@ -91,11 +111,108 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
+        // 优先使用内存中的搜索索引，按评分和销量排序
+        if (shopSearchIndex.isReady()) {
+            return Result.ok(shopSearchIndex.search(name, current, SystemConstants.MAX_PAGE_SIZE).getRecords());
+        }
+        // 索引还没有构建完成时查询数据库，不需要总条数，关闭COUNT查询
         Page<Shop> page = shopService.query()
                 .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 返回数据
         return Result.ok(page.getRecords());
     }
+
+    /**
+     * 根据商铺类型滚动查询商铺信息，每一页的开销都和第一页相同
+     * @param typeId 商铺类型
+     * @param sortBy 排序方式，id按id升序，score按评分降序
+     * @param lastId 上一页最后一条数据的id，第一页不传
+     * @param lastScore 上一页最后一条数据的评分，按评分排序时和lastId一起传
+     * @param count 是否查询总条数
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result scrollShopByType(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "sortBy", defaultValue = "id") String sortBy,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "lastScore", required = false) Integer lastScore,
+            @RequestParam(value = "count", defaultValue = "false") Boolean count
+    ) {
+        QueryChainWrapper<Shop> query = shopService.query().eq("type_id", typeId);
+        if ("score".equals(sortBy)) {
+            // 走(type_id, score, id)索引，从上一页最后一条之后开始读
+            if (lastId != null && lastScore != null) {
+                query.and(w -> w.lt("score", lastScore).or(o -> o.eq("score", lastScore).lt("id", lastId)));
+            }
+            query.orderByDesc("score", "id");
+        } else {
+            query.gt(lastId != null, "id", lastId).orderByAsc("id");
+        }
+        List<Shop> shops = query.last("LIMIT " + SystemConstants.DEFAULT_PAGE_SIZE).list();
+        Long total = count ? shopService.query().eq("type_id", typeId).count().longValue() : null;
+        return Result.ok(scrollResult(shops, total));
+    }
+
+    /**
+     * 搜索框的自动补全，只查询内存中的搜索索引
+     * @param prefix 已经输入的关键字
+     * @param size 最多返回的店铺名称数量
+     * @return 店铺名称列表
+     */
+    @GetMapping("/suggest")
+    public Result suggestShopName(
+            @RequestParam("prefix") String prefix,
+            @RequestParam(value = "size", defaultValue = "10") Integer size
+    ) {
+        return Result.ok(shopSearchIndex.suggest(prefix, Math.min(size, SystemConstants.MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * 根据商铺名称关键字滚动查询商铺信息，只查询内存中的搜索索引，按评分、销量排序
+     * @param name 商铺名称关键字
+     * @param lastId 上一页最后一条数据的id，第一页不传
+     * @param lastScore 上一页最后一条数据的评分，和lastId一起传
+     * @param lastSold 上一页最后一条数据的销量，和lastId一起传
+     * @param count 是否返回总条数
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/name/scroll")
+    public Result scrollShopByName(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "lastScore", required = false) Integer lastScore,
+            @RequestParam(value = "lastSold", required = false) Integer lastSold,
+            @RequestParam(value = "count", defaultValue = "false") Boolean count
+    ) {
+        if (!shopSearchIndex.isReady()) {
+            return Result.fail("店铺搜索正在准备中，请稍后再试");
+        }
+        Shop after = null;
+        if (lastId != null) {
+            after = new Shop();
+            after.setId(lastId);
+            after.setScore(lastScore);
+            after.setSold(lastSold);
+        }
+        Page<Shop> page = shopSearchIndex.scroll(name, after, SystemConstants.MAX_PAGE_SIZE);
+        ScrollResult r = scrollResult(page.getRecords(), count ? page.getTotal() : null);
+        if (!page.getRecords().isEmpty()) {
+            r.setLastSold(page.getRecords().get(page.getRecords().size() - 1).getSold());
+        }
+        return Result.ok(r);
+    }
+
+    private static ScrollResult scrollResult(List<Shop> shops, Long total) {
+        ScrollResult r = new ScrollResult();
+        r.setList(shops);
+        r.setTotal(total);
+        if (!shops.isEmpty()) {
+            Shop last = shops.get(shops.size() - 1);
+            r.setLastId(last.getId());
+            r.setLastScore(last.getScore());
+        }
+        return r;
+    }
 }
@@ -4,12 +4,14 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheResponse;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -26,6 +28,7 @@ public class ShopTypeController {
     private IShopTypeService typeService;
 
     @GetMapping("list")
+    @CacheResponse(ttl = 10, unit = TimeUnit.MINUTES)
     public Result queryTypeList() {
         return typeService.getShopTypeWithList();
     }
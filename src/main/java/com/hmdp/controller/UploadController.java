@@ -1,31 +1,51 @@
 package com.hmdp.controller;
 
-import cn.hutool.core.io.FileUtil;
-import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.BlobStore;
+import com.hmdp.utils.ImageCleaner;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import javax.annotation.Resource;
 import java.io.IOException;
-import java.util.UUID;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 @Slf4j
 @RestController
 @RequestMapping("upload")
 public class UploadController {
 
+    @Resource
+    private BlobStore blobStore;
+
+    @Resource
+    private ImageCleaner imageCleaner;
+
     @PostMapping("blog")
     public Result uploadImage(@RequestParam("file") MultipartFile image) {
+        // 写入存储之前先校验大小和类型
+        if (image.isEmpty() || image.getSize() > blobStore.getMaxSize()) {
+            return Result.fail("文件为空或超过大小限制");
+        }
         try {
-            // 获取原始文件名称
-            String originalFilename = image.getOriginalFilename();
-            // 生成新文件名
-            String fileName = createNewFileName(originalFilename);
-            // 保存文件
-            image.transferTo(new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName));
+            String type;
+            try (InputStream in = image.getInputStream()) {
+                type = BlobStore.detectType(BlobStore.readHeader(in));
+            }
+            if (type == null) {
+                return Result.fail("只支持jpg、png、gif、webp格式的图片");
+            }
+            // 保存文件，文件名是内容的SHA-256，相同的图片只保存一份
+            String fileName = store(image, type);
+            // 登记上传者，相同的图片恰好被其他上传者删除时重新保存
+            if (!imageCleaner.registerUpload(fileName, UserHolder.getUser().getId())) {
+                fileName = store(image, type);
+                imageCleaner.registerUpload(fileName, UserHolder.getUser().getId());
+            }
             // 返回结果
             log.debug("文件上传成功，{}", fileName);
             return Result.ok(fileName);
@@ -34,30 +54,27 @@ public class UploadController {
         }
     }
 
+    private String store(MultipartFile image, String type) throws IOException {
+        try (InputStream in = image.getInputStream()) {
+            return blobStore.store(in, type);
+        }
+    }
+
     @GetMapping("/blog/delete")
     public Result deleteBlogImg(@RequestParam("name") String filename) {
-        File file = new File(SystemConstants.IMAGE_UPLOAD_DIR, filename);
-        if (file.isDirectory()) {
+        Path file;
+        try {
+            file = blobStore.resolve(filename);
+        } catch (IllegalArgumentException e) {
             return Result.fail("错误的文件名称");
         }
-        FileUtil.del(file);
-        return Result.ok();
-    }
-
-    private String createNewFileName(String originalFilename) {
-        // 获取后缀
-        String suffix = StrUtil.subAfter(originalFilename, ".", true);
-        // 生成目录
-        String name = UUID.randomUUID().toString();
-        int hash = name.hashCode();
-        int d1 = hash & 0xF;
-        int d2 = (hash >> 4) & 0xF;
-        // 判断目录是否存在
-        File dir = new File(SystemConstants.IMAGE_UPLOAD_DIR, StrUtil.format("/blogs/{}/{}", d1, d2));
-        if (!dir.exists()) {
-            dir.mkdirs();
+        if (Files.isDirectory(file)) {
+            return Result.fail("错误的文件名称");
+        }
+        // 由后台成批删除，删除前确认没有其他上传者、也没有博文引用该图片
+        if (!imageCleaner.enqueueDelete(filename, UserHolder.getUser().getId())) {
+            return Result.fail("只能删除自己上传的图片");
         }
-        // 生成文件名
-        return StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, name, suffix);
+        return Result.ok();
     }
 }
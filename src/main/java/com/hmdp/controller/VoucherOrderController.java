@@ -3,12 +3,15 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.AsyncRequestExecutor;
+import com.hmdp.utils.ReactiveAdmission;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -25,9 +28,27 @@ public class VoucherOrderController
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private AsyncRequestExecutor asyncRequestExecutor;
+
+    @Resource
+    private ReactiveAdmission reactiveAdmission;
+
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId)
+    public CompletableFuture<Result> seckillVoucher(@PathVariable("id") Long voucherId)
+    {
+        // 超时时脚本可能已经执行成功，不能返回失败，也不能中断
+        if (reactiveAdmission.isEnabled())
+        {
+            return reactiveAdmission.admit(() -> voucherOrderService.seckillVoucherReactive(voucherId)
+                    , VoucherOrderController::pending);
+        }
+        return asyncRequestExecutor.supply(() -> voucherOrderService.seckillVoucher(voucherId)
+                , VoucherOrderController::pending);
+    }
+
+    private static Result pending()
     {
-        return voucherOrderService.seckillVoucher(voucherId);
+        return Result.fail("秒杀请求处理中，请稍后在订单中查看结果");
     }
 }
@@ -9,4 +9,17 @@ public class ScrollResult {
     private List<?> list;
     private Long minTime;
     private Integer offset;
+    /**
+     * 按id或(score,id)滚动查询时，本页最后一条数据的游标，作为下一页的参数
+     */
+    private Long lastId;
+    private Integer lastScore;
+    /**
+     * 按名称滚动查询时按(score,sold,id)排序，还需要本页最后一条数据的销量
+     */
+    private Integer lastSold;
+    /**
+     * 总条数，只在请求时查询
+     */
+    private Long total;
 }
@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 一次刷新中单个店铺各计数器的增量
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShopCounterDelta {
+    private Long shopId;
+    private Long sold;
+    private Long comments;
+    private Long score;
+}
@@ -1,7 +1,11 @@
 package com.hmdp.mapper;
 
+import com.hmdp.dto.ShopCounterDelta;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,8 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ShopMapper extends BaseMapper<Shop> {
 
+    /**
+     * 用一条UPDATE ... CASE语句把一批店铺的计数器增量写入数据库
+     */
+    int incrementCounters(@Param("deltas") List<ShopCounterDelta> deltas);
 }
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,9 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 用一条INSERT IGNORE语句插入一批订单，与已有订单的id或者(user_id, voucher_id)重复的行被忽略
+     * 返回实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
 }
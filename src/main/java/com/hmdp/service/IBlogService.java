@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,13 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    /**
+     * 保存探店博文，热门博文的响应缓存在事务提交后失效
+     */
+    Result saveBlog(Blog blog);
+
+    /**
+     * 点赞，热门博文的响应缓存在事务提交后失效
+     */
+    Result likeBlog(Long id);
 }
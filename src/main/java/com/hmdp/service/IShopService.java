@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
+import reactor.core.publisher.Mono;
 
 /**
  * <p>
@@ -16,5 +17,12 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    /**
+     * 缓存命中时不阻塞线程的店铺查询
+     */
+    Mono<Result> queryByIdReactive(Long id);
+
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 }
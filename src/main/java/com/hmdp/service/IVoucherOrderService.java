@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
 
 /**
  * <p>
@@ -16,5 +19,17 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
+    /**
+     * 通过响应式API执行秒杀脚本，等待Redis响应期间不占用线程
+     */
+    Mono<Result> seckillVoucherReactive(Long voucherId);
+
     Result createVoucherOrder(Long voucherId);
+
+    /**
+     * 批量保存秒杀订单，每张优惠券只执行一条INSERT IGNORE和一条扣减库存的UPDATE，由唯一索引(user_id, voucher_id)去重
+     * 所有订单在一个事务中写入，一张优惠券失败时整体回滚，需要按优惠券隔离失败时分别调用
+     * 同一个订单重复写入时不会重复扣减库存；返回因为用户已经有该优惠券的订单而没有保存的订单
+     */
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> orders);
 }
@@ -1,10 +1,18 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.ShopCounters;
+import com.hmdp.utils.UserHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +25,35 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    @Resource
+    private ShopCounters shopCounters;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Override
+    @Transactional
+    public Result saveBlog(Blog blog) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 保存探店博文
+        save(blog);
+        // 店铺评论数加一，异步刷新到数据库
+        shopCounters.incrementComments(blog.getShopId());
+        // 热门博文的缓存响应失效，在事务提交后执行
+        cacheInvalidator.evictResponse("/blog/hot");
+        // 返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    @Transactional
+    public Result likeBlog(Long id) {
+        // 修改点赞数量
+        update().setSql("liked = liked + 1").eq("id", id).update();
+        // 热门博文的缓存响应失效，在事务提交后执行
+        cacheInvalidator.evictResponse("/blog/hot");
+        return Result.ok();
+    }
 }
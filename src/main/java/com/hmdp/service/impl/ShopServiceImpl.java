@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
@@ -9,13 +8,20 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilterManager;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopSearchIndex;
+import com.hmdp.utils.StripedLock;
+import com.hmdp.utils.StripedLockFactory;
+import com.hmdp.utils.UserContext;
 import org.springframework.cache.CacheManager;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
@@ -40,7 +46,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    @Resource
+    private StripedLockFactory stripedLockFactory;
+
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = UserContext.wrap(Executors.newFixedThreadPool(10));
 
     @Override
     public Result queryById(Long id)
@@ -68,6 +86,28 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public Mono<Result> queryByIdReactive(Long id)
+    {
+        return cacheClient.queryWithPassThroughReactive(RedisConstants.CACHE_SHOP_KEY, id, Shop.class
+                        , this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                .map(shop -> Result.ok(shop))
+                .defaultIfEmpty(Result.ok(null));
+    }
+
+    @Override
+    public Result saveShop(Shop shop)
+    {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器
+        bloomFilterManager.put(BloomFilterManager.SHOP, shop.getId());
+        // 加入搜索索引
+        shopSearchIndex.index(shop);
+        // 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     @Override
     @Transactional
     public Result update(Shop shop)
@@ -79,23 +119,14 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 更新数据库
         updateById(shop);
-        // 删除缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        // 删除缓存，在事务提交后执行
+        cacheInvalidator.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        cacheInvalidator.evictResponse("/shop/" + id);
+        // 更新搜索索引，只覆盖本次修改的字段，在事务提交后执行
+        shopSearchIndex.index(shop);
         return Result.ok();
     }
 
-    private boolean tryLock(String key)
-    {
-        Boolean flag = stringRedisTemplate.opsForValue()
-                .setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unLock(String key)
-    {
-        stringRedisTemplate.delete(key);
-    }
-
     public Shop queryWithPassThrough(Long id)
     {
         String shopJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
@@ -132,17 +163,25 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return null;
         }
         // 实现缓存重建
-        // 获取互斥锁
+        // 获取互斥锁，本节点的线程在本地排队，只有拿到本地锁的线程访问Redis，不再休眠后递归重试
         String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
+        StripedLock lock = stripedLockFactory.getLock(lockKey);
+        if (!lock.tryLock(RedisConstants.LOCK_SHOP_TTL, RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS))
+        {
+            // 等待超时，直接查询数据库
+            return getById(id);
+        }
         Shop shop = null;
         try {
-            boolean isLock = tryLock(lockKey);
-            // 判断是否获取成功
-            if (!isLock)
+            // 排队期间缓存可能已经重建
+            shopJson = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
+            if (StrUtil.isNotBlank(shopJson))
             {
-                // 失败则休眠并尝试重试
-                Thread.sleep(50);
-                return queryWithMutex(id);
+                return JSONUtil.toBean(shopJson, Shop.class);
+            }
+            if (shopJson != null)
+            {
+                return null;
             }
             // 成功则根据ID查数据库
             shop = getById(id);
@@ -159,7 +198,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             throw new RuntimeException(e);
         } finally {
             // 释放互斥锁
-            unLock(lockKey);
+            lock.unlock();
         }
         return shop;
     }
@@ -197,24 +236,27 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return shop;
         }
         // 已过期，需要缓存重建
-        // 获取互斥锁
+        // 本节点已经有线程在重建时不再提交任务
         String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 判断是否获取锁成功
-        if (isLock)
+        if (!stripedLockFactory.isLocked(lockKey))
         {
-            // 成功，开启一个新的独立线程，进行缓存重建
+            // 开启一个新的独立线程，获取互斥锁后进行缓存重建，锁与线程绑定，加锁和解锁都在重建线程中
             CACHE_REBUILD_EXECUTOR.submit(() -> {
+                StripedLock lock = stripedLockFactory.getLock(lockKey);
+                if (!lock.tryLock(RedisConstants.LOCK_SHOP_TTL))
+                {
+                    return;
+                }
                 try {
                     this.saveShopToRedis(id, 20L);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 } finally {
-                    unLock(lockKey);
+                    lock.unlock();
                 }
             });
         }
-        // 获取锁失败，直接返回过期的旧数据
+        // 直接返回过期的旧数据
         return shop;
     }
 
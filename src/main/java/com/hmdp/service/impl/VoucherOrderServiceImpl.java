@@ -2,28 +2,52 @@ package com.hmdp.service.impl;
 
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilterManager;
+import com.hmdp.utils.HotPathMetrics;
+import com.hmdp.utils.LuaScripts;
+import com.hmdp.utils.ReactiveScripts;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdGenerator;
+import com.hmdp.utils.RedisKeys;
+import com.hmdp.utils.SeckillOrderWriter;
+import com.hmdp.utils.ShopCounters;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -48,36 +72,196 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("SecKill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
+    @Resource
+    private ReactiveScripts reactiveScripts;
+
+    @Resource
+    private SeckillVoucherMapper seckillVoucherMapper;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private SeckillOrderWriter seckillOrderWriter;
+
+    @Resource
+    private ShopCounters shopCounters;
+
+    /**
+     * 优惠券所属的店铺，订单落库后累加店铺销量
+     */
+    private final Map<Long, Long> voucherShops = new ConcurrentHashMap<>();
+
+    /**
+     * 本地缓存的秒杀时间，[开始时间, 结束时间, 本地缓存过期时间]，单位毫秒
+     * 用于在访问Redis之前提前拒绝不在秒杀时间内的请求，最终以Lua脚本中的判断为准
+     * 只缓存Redis中设置了秒杀时间的优惠券，数量有上限，过期的定期清除，随机的id不会让缓存无限增长
+     */
+    private final Map<Long, long[]> seckillWindows = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.seckill.window-cache-size:10000}")
+    private int seckillWindowCacheSize;
+
+    /**
+     * 没有设置秒杀时间的优惠券不做限制
+     */
+    private static final long[] NO_WINDOW = {Long.MIN_VALUE, Long.MAX_VALUE, 0};
 
     @Override
     public Result seckillVoucher(Long voucherId)
     {
         Long userId = UserHolder.getUser().getId();
+        // 不存在的优惠券直接拒绝，不访问Redis
+        if (!bloomFilterManager.mightContain(BloomFilterManager.VOUCHER, voucherId))
+        {
+            return Result.fail("优惠券不存在");
+        }
+        // 判断秒杀是否已经开始或者已经结束
+        String windowFail = checkSeckillWindow(getSeckillWindow(voucherId));
+        if (windowFail != null)
+        {
+            return Result.fail(windowFail);
+        }
         // 执行lua脚本
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT
-                , Collections.emptyList()
-                , voucherId.toString()
+        Long result = LuaScripts.SECKILL.execute(stringRedisTemplate
+                , RedisKeys.seckillKeys(voucherId)
                 , userId.toString());
         // 判断结果是否为0
         int r = result.intValue();
+        HotPathMetrics.seckillResult(r).increment();
         if (r != 0)
         {
             // 不为0，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "该用户已经下单成功无法重新下单");
+            return Result.fail(seckillFailMessage(r));
         }
         // 为0，有购买资格，保存信息到阻塞队列中，后续异步处理
         long orderId = redisIdGenerator.nextId("order");
+        seckillOrderWriter.submit(newOrder(orderId, userId, voucherId));
 
         // 返回订单ID
         return Result.ok(orderId);
     }
 
+    @Override
+    public Mono<Result> seckillVoucherReactive(Long voucherId)
+    {
+        // 在请求线程中取出用户，之后的回调在Lettuce的IO线程中执行
+        Long userId = UserHolder.getUser().getId();
+        if (!bloomFilterManager.mightContain(BloomFilterManager.VOUCHER, voucherId))
+        {
+            return Mono.just(Result.fail("优惠券不存在"));
+        }
+        // 只使用本地已经缓存的秒杀时间，不为此阻塞查询Redis，没有缓存时由脚本判断
+        long[] window = seckillWindows.get(voucherId);
+        if (window != null && window[2] > System.currentTimeMillis())
+        {
+            String windowFail = checkSeckillWindow(window);
+            if (windowFail != null)
+            {
+                return Mono.just(Result.fail(windowFail));
+            }
+        }
+        return reactiveScripts.executeForLong(LuaScripts.SECKILL, RedisKeys.seckillKeys(voucherId), userId.toString())
+                .flatMap(result -> {
+                    int r = result.intValue();
+                    HotPathMetrics.seckillResult(r).increment();
+                    if (r != 0)
+                    {
+                        return Mono.just(Result.fail(seckillFailMessage(r)));
+                    }
+                    return redisIdGenerator.nextIdReactive("order").flatMap(orderId -> {
+                        VoucherOrder order = newOrder(orderId, userId, voucherId);
+                        if (seckillOrderWriter.offer(order))
+                        {
+                            return Mono.just(Result.ok(orderId));
+                        }
+                        // 队列已满，在boundedElastic线程中直接写入，不阻塞Lettuce的IO线程
+                        return Mono.fromRunnable(() -> seckillOrderWriter.writeNow(order))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .thenReturn(Result.ok(orderId));
+                    });
+                });
+    }
+
+    private static VoucherOrder newOrder(long orderId, Long userId, Long voucherId)
+    {
+        return new VoucherOrder()
+                .setId(orderId)
+                .setUserId(userId)
+                .setVoucherId(voucherId)
+                .setCreateTime(LocalDateTime.now());
+    }
+
+    /**
+     * 不在秒杀时间内时返回失败信息，否则返回null
+     */
+    private String checkSeckillWindow(long[] window)
+    {
+        long now = System.currentTimeMillis();
+        if (now < window[0])
+        {
+            return "秒杀尚未开始";
+        }
+        if (now > window[1])
+        {
+            return "秒杀已经结束";
+        }
+        return null;
+    }
+
+    private long[] getSeckillWindow(Long voucherId)
+    {
+        long[] window = seckillWindows.get(voucherId);
+        long now = System.currentTimeMillis();
+        if (window != null && window[2] > now)
+        {
+            return window;
+        }
+        // 本地没有或者已过期，从Redis中读取秒杀时间，没有设置时间的不做限制
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(RedisKeys.seckillWindow(voucherId)
+                , Arrays.asList("begin", "end"));
+        if (values.get(0) == null || values.get(1) == null)
+        {
+            return NO_WINDOW;
+        }
+        long begin = Long.parseLong(values.get(0).toString());
+        long end = Long.parseLong(values.get(1).toString());
+        window = new long[]{begin, end, now + TimeUnit.SECONDS.toMillis(RedisConstants.SECKILL_WINDOW_LOCAL_TTL)};
+        // 达到上限时不再缓存，等待过期的被清除
+        if (seckillWindows.size() < seckillWindowCacheSize || seckillWindows.containsKey(voucherId))
+        {
+            seckillWindows.put(voucherId, window);
+        }
+        return window;
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.window-sweep-interval-ms:60000}")
+    public void sweepSeckillWindows()
+    {
+        long now = System.currentTimeMillis();
+        seckillWindows.values().removeIf(window -> window[2] <= now);
+    }
+
+    private String seckillFailMessage(int result)
+    {
+        switch (result)
+        {
+            case 1:
+                return "库存不足";
+            case 2:
+                return "该用户已经下单成功无法重新下单";
+            case 3:
+                return "秒杀尚未开始";
+            case 4:
+                return "秒杀已经结束";
+            default:
+                return "秒杀失败";
+        }
+    }
+
 //    @Override
 //    public Result seckillVoucher(Long voucherId)
 //    {
@@ -136,27 +320,86 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     public Result createVoucherOrder(Long voucherId)
     {
         Long userId = UserHolder.getUser().getId();
-        int count = query().eq("voucher_id", voucherId).eq("user_id", userId).count();
-        if  (count > 0)
+        long orderId = redisIdGenerator.nextId("order");
+        // 是否重复下单由唯一索引uk_user_voucher判断，不再先查询订单数，并发下单时只有一个能插入
+        if (getBaseMapper().insertIgnoreBatch(Collections.singletonList(newOrder(orderId, userId, voucherId))) == 0)
         {
             return Result.fail("该用户已经下单过一次，无法再次下单");
         }
         // 如果充足扣减库存（乐观锁一定程度上解决超买超卖）
-        boolean success = seckillVoucherService.update()
-                .setSql("stock = stock - 1") // set stock = stock - 1
-                .eq("voucher_id", voucherId).gt("stock", 0) // where id = ? and stock > 0
-                .update();
-        if (!success)
+        if (seckillVoucherMapper.decreaseStock(voucherId, 1) == 0)
         {
+            // 库存不足时撤销插入的订单
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             return Result.fail("库存不足");
         }
-        // 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        long orderId = redisIdGenerator.nextId("order");
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucherId);
-        save(voucherOrder);
         return Result.ok(orderId);
     }
+
+    @Override
+    @Transactional
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> orders)
+    {
+        List<VoucherOrder> losers = new ArrayList<>();
+        // 按优惠券id的顺序扣减库存，并发的批次按相同顺序加行锁，不会相互死锁
+        Map<Long, List<VoucherOrder>> byVoucher = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, TreeMap::new, Collectors.toList()));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet())
+        {
+            Long voucherId = entry.getKey();
+            List<VoucherOrder> group = entry.getValue();
+            // 忽略的行是用户已有订单，或者是重试时已经落库的同一个订单，库存只按实际插入的行数扣减
+            int inserted = getBaseMapper().insertIgnoreBatch(group);
+            if (inserted < group.size())
+            {
+                losers.addAll(findLosers(group));
+            }
+            if (inserted == 0)
+            {
+                continue;
+            }
+            if (seckillVoucherMapper.decreaseStock(voucherId, inserted) == 0)
+            {
+                // 库存已经由秒杀脚本扣减过，数据库库存不足说明两边不一致，整批回滚
+                throw new IllegalStateException("优惠券" + voucherId + "的数据库库存不足" + inserted);
+            }
+            incrementSoldAfterCommit(voucherId, inserted);
+        }
+        return losers;
+    }
+
+    /**
+     * 没有插入的订单中，id不在数据库中的是被唯一索引去重的订单，id已经存在的是重试时已经落库的订单
+     */
+    private List<VoucherOrder> findLosers(List<VoucherOrder> group)
+    {
+        List<Long> ids = group.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> persisted = query().select("id").in("id", ids).list().stream()
+                .map(VoucherOrder::getId)
+                .collect(Collectors.toSet());
+        return group.stream().filter(order -> !persisted.contains(order.getId())).collect(Collectors.toList());
+    }
+
+    /**
+     * 事务提交后再累加店铺销量，回滚时不累加
+     */
+    private void incrementSoldAfterCommit(Long voucherId, int count)
+    {
+        Long shopId = voucherShops.computeIfAbsent(voucherId, id -> {
+            Voucher voucher = voucherService.getById(id);
+            return voucher == null ? null : voucher.getShopId();
+        });
+        if (shopId == null)
+        {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+        {
+            @Override
+            public void afterCommit()
+            {
+                shopCounters.incrementSold(shopId, count);
+            }
+        });
+    }
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,13 +8,21 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.BloomFilterManager;
+import com.hmdp.utils.CacheInvalidator;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisKeys;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -32,14 +41,86 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private BloomFilterManager bloomFilterManager;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    /**
+     * 秒杀券的类型
+     */
+    private static final int SECKILL_TYPE = 1;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 优惠券的基本信息很少变化，缓存到Redis中，避免每次都关联查询正在被下单扣减的秒杀券表
+        String key = RedisConstants.CACHE_VOUCHER_SHOP_KEY + shopId;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        List<Voucher> vouchers;
+        if (json != null)
+        {
+            vouchers = JSONUtil.toList(json, Voucher.class);
+        }
+        else
+        {
+            // 查询优惠券信息，没有优惠券的店铺同样缓存空列表
+            vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(vouchers)
+                    , RedisConstants.CACHE_VOUCHER_TTL, TimeUnit.MINUTES);
+        }
+        // 库存变化频繁，以Redis中的秒杀库存为准
+        overlaySeckillStock(vouchers);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    /**
+     * 一次MGET取出所有秒杀券的实时库存，覆盖缓存中的库存
+     */
+    private void overlaySeckillStock(List<Voucher> vouchers)
+    {
+        List<Voucher> seckillVouchers = new ArrayList<>();
+        List<String> stockKeys = new ArrayList<>();
+        for (Voucher voucher : vouchers)
+        {
+            if (voucher.getType() != null && voucher.getType() == SECKILL_TYPE)
+            {
+                seckillVouchers.add(voucher);
+                stockKeys.add(RedisKeys.seckillStock(voucher.getId()));
+            }
+        }
+        if (stockKeys.isEmpty())
+        {
+            return;
+        }
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(stockKeys);
+        if (stocks == null)
+        {
+            return;
+        }
+        for (int i = 0; i < seckillVouchers.size(); i++)
+        {
+            String stock = stocks.get(i);
+            // Redis中没有库存的（例如历史数据）保留数据库中的库存
+            if (stock != null)
+            {
+                seckillVouchers.get(i).setStock(Integer.valueOf(stock));
+            }
+        }
+    }
+
+    @Override
+    public void addVoucher(Voucher voucher)
+    {
+        // 保存优惠券
+        save(voucher);
+        bloomFilterManager.put(BloomFilterManager.VOUCHER, voucher.getId());
+        // 店铺优惠券列表的缓存失效
+        cacheInvalidator.delete(RedisConstants.CACHE_VOUCHER_SHOP_KEY + voucher.getShopId());
+        cacheInvalidator.evictResponse("/voucher/list/" + voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher)
@@ -53,9 +134,23 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        bloomFilterManager.put(BloomFilterManager.VOUCHER, voucher.getId());
 
         // 保存秒杀券到Redis中
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId()
+        stringRedisTemplate.opsForValue().set(RedisKeys.seckillStock(voucher.getId())
                 , String.valueOf(voucher.getStock()));
+        // 保存秒杀时间到Redis中，由Lua脚本根据服务器时间判断秒杀是否开始或结束
+        if (voucher.getBeginTime() != null && voucher.getEndTime() != null)
+        {
+            Map<String, String> window = new HashMap<>();
+            window.put("begin", String.valueOf(voucher.getBeginTime().atZone(ZoneId.systemDefault())
+                    .toInstant().toEpochMilli()));
+            window.put("end", String.valueOf(voucher.getEndTime().atZone(ZoneId.systemDefault())
+                    .toInstant().toEpochMilli()));
+            stringRedisTemplate.opsForHash().putAll(RedisKeys.seckillWindow(voucher.getId()), window);
+        }
+        // 店铺优惠券列表的缓存失效
+        cacheInvalidator.delete(RedisConstants.CACHE_VOUCHER_SHOP_KEY + voucher.getShopId());
+        cacheInvalidator.evictResponse("/voucher/list/" + voucher.getShopId());
     }
 }
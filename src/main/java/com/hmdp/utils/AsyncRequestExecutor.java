@@ -0,0 +1,177 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 访问Redis和数据库的接口在该执行器中执行，Tomcat线程在等待期间被释放
+ * 线程数和排队数都有上限，超过时直接拒绝，不会把Tomcat线程耗尽
+ * 运行在Java 21及以上并开启hmdp.async.virtual-threads时使用虚拟线程，并发数仍受同样的上限限制
+ * 任务超过hmdp.async.timeout-ms仍未完成时：还在排队的任务不再执行，以AsyncRequestTimeoutException结束；
+ * 正在执行的任务默认被中断，有副作用的任务可以指定超时结果，此时不中断任务，先给客户端返回该结果
+ */
+@Slf4j
+@Component
+public class AsyncRequestExecutor
+{
+    @Value("${hmdp.async.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.async.threads:64}")
+    private int threads;
+
+    @Value("${hmdp.async.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${hmdp.async.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    /**
+     * 与MVCConfig中异步请求的超时时间一致
+     */
+    @Value("${hmdp.async.timeout-ms:10000}")
+    private long timeoutMillis;
+
+    private ExecutorService executor;
+
+    /**
+     * 任务超时的定时器
+     */
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * 使用虚拟线程时限制同时执行和等待的任务数
+     */
+    private Semaphore permits;
+
+    @PostConstruct
+    public void init()
+    {
+        timer = new ScheduledThreadPoolExecutor(1, ThreadFactoryBuilder.create().setNamePrefix("async-timeout-").setDaemon(true).build());
+        // 任务按时完成时取消的定时任务直接从队列中移除
+        timer.setRemoveOnCancelPolicy(true);
+        if (virtualThreads)
+        {
+            try {
+                // 通过反射创建，Java 8也可以编译
+                executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                permits = new Semaphore(threads + queueCapacity);
+                log.info("接口异步执行使用虚拟线程");
+                return;
+            } catch (ReflectiveOperationException e) {
+                log.warn("当前JDK不支持虚拟线程，使用线程池");
+            }
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS
+                , new ArrayBlockingQueue<>(queueCapacity)
+                , ThreadFactoryBuilder.create().setNamePrefix("async-io-").build()
+                , new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+    }
+
+    /**
+     * 在执行器中执行任务，当前线程的登录用户会传递到执行线程中；超时时中断任务，只适用于没有副作用的任务
+     * 关闭异步执行时直接在当前线程中执行
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> task)
+    {
+        return supply(task, null);
+    }
+
+    /**
+     * 在执行器中执行任务
+     * @param onTimeout 任务已经开始执行但超时时返回给客户端的结果，例如“处理中”，任务不会被中断；
+     *                  为null时中断任务并返回AsyncRequestTimeoutException
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> task, Supplier<T> onTimeout)
+    {
+        if (!enabled)
+        {
+            return CompletableFuture.completedFuture(task.get());
+        }
+        Supplier<T> wrapped = UserContext.wrap(task);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (permits != null && !permits.tryAcquire())
+        {
+            future.completeExceptionally(new RejectedExecutionException("异步执行器已满"));
+            return future;
+        }
+        // 任务开始执行和超时只有一方能够成功，超时时还没有开始的任务不再执行
+        AtomicBoolean started = new AtomicBoolean();
+        Future<?> running;
+        try {
+            running = executor.submit(() -> {
+                if (!started.compareAndSet(false, true))
+                {
+                    return;
+                }
+                try {
+                    future.complete(wrapped.get());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    releasePermit();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            releasePermit();
+            future.completeExceptionally(e);
+            return future;
+        }
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            if (started.compareAndSet(false, true))
+            {
+                // 还在排队，任务不会再执行，这里释放名额
+                future.completeExceptionally(new AsyncRequestTimeoutException());
+                releasePermit();
+            }
+            else if (onTimeout != null)
+            {
+                // 正在执行的任务可能已经产生副作用，不中断，名额在任务结束时释放
+                future.complete(onTimeout.get());
+            }
+            else if (future.completeExceptionally(new AsyncRequestTimeoutException()))
+            {
+                // 正在执行，中断等待中的IO，名额在任务结束时释放
+                running.cancel(true);
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, e) -> timeout.cancel(false));
+        return future;
+    }
+
+    private void releasePermit()
+    {
+        if (permits != null)
+        {
+            permits.release();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        executor.shutdown();
+        timer.shutdownNow();
+    }
+}
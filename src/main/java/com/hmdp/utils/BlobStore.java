@@ -0,0 +1,265 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地图片存储，文件按内容的SHA-256命名，相同的图片只保存一份
+ * 原图保存在 {root}/blogs/{hash前两位}/{hash第三四位}/{hash}.{ext}，缩略图保存在 {root}/thumbs/{宽度}/ 下相同的相对路径
+ * 上传时边读边计算摘要，写入临时文件后再原子移动到目标位置；缩略图在有界线程池中异步生成，队列满时跳过
+ */
+@Slf4j
+@Component
+public class BlobStore
+{
+    private static final int HEADER_SIZE = 12;
+
+    private static final long TRANSFER_CHUNK = 1 << 20;
+
+    /**
+     * 图片存储的根目录，相对路径相对于进程的工作目录
+     */
+    @Value("${hmdp.blob.root:data/blobs}")
+    private String rootDir;
+
+    @Getter
+    @Value("${hmdp.blob.max-size:10485760}")
+    private long maxSize;
+
+    @Getter
+    @Value("${hmdp.blob.thumbnail-sizes:200,600}")
+    private int[] thumbnailSizes;
+
+    @Value("${hmdp.blob.thumbnail-threads:2}")
+    private int thumbnailThreads;
+
+    @Value("${hmdp.blob.thumbnail-queue:200}")
+    private int thumbnailQueue;
+
+    @Getter
+    private Path root;
+
+    private Path tmpDir;
+
+    private ThreadPoolExecutor thumbnailExecutor;
+
+    @PostConstruct
+    public void init() throws IOException
+    {
+        root = Paths.get(rootDir).toAbsolutePath().normalize();
+        tmpDir = root.resolve("tmp");
+        Files.createDirectories(tmpDir);
+        log.info("图片存储目录：{}", root);
+        thumbnailExecutor = new ThreadPoolExecutor(thumbnailThreads, thumbnailThreads, 0, TimeUnit.MILLISECONDS
+                , new ArrayBlockingQueue<>(thumbnailQueue)
+                , ThreadFactoryBuilder.create().setNamePrefix("thumbnail-").setDaemon(true).build()
+                , (task, executor) -> log.warn("缩略图队列已满，跳过生成"));
+    }
+
+    /**
+     * 根据文件头判断图片类型，返回扩展名，不支持的类型返回null
+     * @param header 文件开头的字节，至少12个字节
+     */
+    public static String detectType(byte[] header)
+    {
+        if (header.length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF)
+        {
+            return "jpg";
+        }
+        if (header.length >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G')
+        {
+            return "png";
+        }
+        if (header.length >= 4 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8')
+        {
+            return "gif";
+        }
+        if (header.length >= HEADER_SIZE && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P')
+        {
+            return "webp";
+        }
+        return null;
+    }
+
+    /**
+     * 读取输入流开头的字节用于判断类型
+     */
+    public static byte[] readHeader(InputStream in) throws IOException
+    {
+        byte[] header = new byte[HEADER_SIZE];
+        int n = 0;
+        int read;
+        while (n < header.length && (read = in.read(header, n, header.length - n)) > 0)
+        {
+            n += read;
+        }
+        byte[] result = new byte[n];
+        System.arraycopy(header, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * 保存图片，返回相对路径，例如 /blogs/ab/cd/abcd....jpg
+     * 调用前需要已经校验过大小和类型，写入过程中超过大小限制时放弃保存
+     */
+    public String store(InputStream in, String ext) throws IOException
+    {
+        MessageDigest digest = sha256();
+        Path tmp = tmpDir.resolve(UUID.randomUUID().toString());
+        try {
+            try (DigestInputStream digestIn = new DigestInputStream(in, digest);
+                 ReadableByteChannel source = Channels.newChannel(digestIn);
+                 FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+            {
+                long position = 0;
+                long n;
+                while ((n = target.transferFrom(source, position, TRANSFER_CHUNK)) > 0)
+                {
+                    position += n;
+                    if (position > maxSize)
+                    {
+                        throw new IOException("文件超过大小限制");
+                    }
+                }
+            }
+            String hash = HexUtil.encodeHexStr(digest.digest());
+            String name = blobName(hash, ext);
+            Path path = resolve(name);
+            if (Files.exists(path))
+            {
+                // 相同内容的图片已经保存过，更新修改时间，避免在宽限期内被当作无引用的图片清理
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+                return name;
+            }
+            Files.createDirectories(path.getParent());
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            generateThumbnails(name);
+            return name;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 把相对路径转换成存储目录中的文件，不允许访问存储目录以外的文件
+     */
+    public Path resolve(String name)
+    {
+        Path path = root.resolve(StrUtil.removePrefix(name, "/")).normalize();
+        if (!path.startsWith(root) || path.equals(root))
+        {
+            throw new IllegalArgumentException("错误的文件名称");
+        }
+        return path;
+    }
+
+    /**
+     * 缩略图的相对路径
+     */
+    public String thumbnailName(String name, int width)
+    {
+        String relative = StrUtil.removePrefix(name, "/blogs/");
+        return "/thumbs/" + width + "/" + StrUtil.subBefore(relative, ".", true) + ".jpg";
+    }
+
+    /**
+     * 图片及其所有缩略图的文件
+     */
+    public List<Path> allFilesOf(String name)
+    {
+        List<Path> paths = new ArrayList<>(thumbnailSizes.length + 1);
+        paths.add(resolve(name));
+        for (int width : thumbnailSizes)
+        {
+            paths.add(resolve(thumbnailName(name, width)));
+        }
+        return paths;
+    }
+
+    private void generateThumbnails(String name)
+    {
+        thumbnailExecutor.execute(() -> {
+            try {
+                BufferedImage image = ImageIO.read(resolve(name).toFile());
+                if (image == null)
+                {
+                    // ImageIO不支持的格式（例如webp）不生成缩略图
+                    return;
+                }
+                for (int width : thumbnailSizes)
+                {
+                    Path path = resolve(thumbnailName(name, width));
+                    if (width >= image.getWidth() || Files.exists(path))
+                    {
+                        continue;
+                    }
+                    int height = Math.max(1, (int) ((long) image.getHeight() * width / image.getWidth()));
+                    BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                    Graphics2D g = thumbnail.createGraphics();
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    g.drawImage(image, 0, 0, width, height, null);
+                    g.dispose();
+                    Files.createDirectories(path.getParent());
+                    Path tmp = tmpDir.resolve(UUID.randomUUID().toString());
+                    ImageIO.write(thumbnail, "jpg", tmp.toFile());
+                    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (Exception e) {
+                log.warn("生成缩略图失败：{}", name, e);
+            }
+        });
+    }
+
+    private static String blobName(String hash, String ext)
+    {
+        return StrUtil.format("/blogs/{}/{}/{}.{}", hash.substring(0, 2), hash.substring(2, 4), hash, ext);
+    }
+
+    private static MessageDigest sha256()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        thumbnailExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,250 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADDED_KEY;
+
+/**
+ * 店铺和优惠券id的布隆过滤器，防止随机id穿透到Redis和MySQL
+ * 过滤器保存在本地内存中，启动后从数据库分批加载id并定期重建；新增数据时通过Redis频道通知所有节点
+ * 新增的id同时记录在Redis的有序集合中，通知丢失或者还没有到达时，比构建时最大id更大的id在本地判断不存在后再查一次该集合，
+ * 重建时也会合并该集合，记录保留两个重建周期
+ * 过滤器构建完成之前不做拦截
+ */
+@Slf4j
+@Component
+public class BloomFilterManager
+{
+    public static final String SHOP = "shop";
+
+    public static final String VOUCHER = "voucher";
+
+    private static final String CHANNEL = "bloom:add";
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private VoucherMapper voucherMapper;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    @Value("${hmdp.bloom.rebuild-chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${hmdp.bloom.rebuild-interval-ms:3600000}")
+    private long rebuildIntervalMillis;
+
+    private final Map<String, IdBloomFilter> filters = new ConcurrentHashMap<>();
+
+    /**
+     * 构建过滤器时数据库中的最大id，自增id大于该值的可能是之后新增的
+     */
+    private final Map<String, Long> maxIds = new ConcurrentHashMap<>();
+
+    /**
+     * 重建期间新增的id，重建完成后补充到新的过滤器中，避免扫描之后新增的id丢失
+     */
+    private final Map<String, Queue<Long>> addedDuringRebuild = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init()
+    {
+        // 订阅其他节点新增的id
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody());
+            int index = body.indexOf(':');
+            if (index > 0)
+            {
+                putLocal(body.substring(0, index), Long.parseLong(body.substring(index + 1)));
+            }
+        }, new ChannelTopic(CHANNEL));
+    }
+
+    /**
+     * 启动后立即构建，之后定期重建，清除已经删除的id
+     */
+    @Scheduled(initialDelayString = "${hmdp.bloom.initial-delay-ms:0}"
+            , fixedDelayString = "${hmdp.bloom.rebuild-interval-ms:3600000}")
+    public void rebuildAll()
+    {
+        rebuild(SHOP, shopMapper, RedisConstants.CACHE_SHOP_KEY);
+        rebuild(VOUCHER, voucherMapper, null);
+    }
+
+    /**
+     * 判断id是否可能存在，过滤器尚未构建时返回true
+     */
+    public boolean mightContain(String name, long id)
+    {
+        IdBloomFilter filter = filters.get(name);
+        if (filter == null || filter.mightContain(id))
+        {
+            return true;
+        }
+        // 构建之后新增的id可能还没有收到通知，只对比最大id更大的id查询Redis，随机的旧id仍然在本地拦截
+        Long maxId = maxIds.get(name);
+        return maxId != null && id > maxId && isRecentlyAdded(name, id);
+    }
+
+    private boolean isRecentlyAdded(String name, long id)
+    {
+        try {
+            if (stringRedisTemplate.opsForZSet().score(BLOOM_ADDED_KEY + name, String.valueOf(id)) == null)
+            {
+                return false;
+            }
+        } catch (Exception e) {
+            // Redis不可用时放行，由后续的查询判断是否存在
+            log.warn("查询新增id记录失败：{}:{}", name, id, e);
+            return true;
+        }
+        putLocal(name, id);
+        return true;
+    }
+
+    /**
+     * 新增数据后调用，加入本地过滤器并通知其他节点
+     * 在事务中调用时等到提交后再加入，回滚的id不会进入过滤器
+     */
+    public void put(String name, Long id)
+    {
+        if (id == null)
+        {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCommit()
+                {
+                    putNow(name, id);
+                }
+            });
+            return;
+        }
+        putNow(name, id);
+    }
+
+    private void putNow(String name, Long id)
+    {
+        putLocal(name, id);
+        try {
+            // 先记录再通知，其他节点收到通知之前也能查到
+            stringRedisTemplate.opsForZSet().add(BLOOM_ADDED_KEY + name, String.valueOf(id), System.currentTimeMillis());
+        } catch (Exception e) {
+            log.warn("记录新增id失败：{}:{}", name, id, e);
+        }
+        stringRedisTemplate.convertAndSend(CHANNEL, name + ":" + id);
+    }
+
+    /**
+     * 只加入本地过滤器，用于每个节点都会收到的新增事件
+     */
+    public void putLocal(String name, long id)
+    {
+        IdBloomFilter filter = filters.get(name);
+        if (filter != null)
+        {
+            filter.put(id);
+        }
+        Queue<Long> pending = addedDuringRebuild.get(name);
+        if (pending != null)
+        {
+            pending.add(id);
+        }
+    }
+
+    private <T> void rebuild(String name, BaseMapper<T> mapper, String cacheKeyPrefix)
+    {
+        Queue<Long> pending = new ConcurrentLinkedQueue<>();
+        addedDuringRebuild.put(name, pending);
+        try {
+            Integer count = mapper.selectCount(null);
+            IdBloomFilter filter = new IdBloomFilter(Math.max(expectedInsertions, count == null ? 0 : count * 2L), fpp);
+            // 按id分批扫描，每批只查询id列
+            long lastId = 0;
+            while (true)
+            {
+                List<Object> ids = mapper.selectObjs(new QueryWrapper<T>().select("id").gt("id", lastId)
+                        .orderByAsc("id").last("limit " + chunkSize));
+                for (Object id : ids)
+                {
+                    lastId = ((Number) id).longValue();
+                    filter.put(lastId);
+                }
+                if (ids.size() < chunkSize)
+                {
+                    break;
+                }
+            }
+            // 合并最近新增的记录，覆盖扫描期间丢失的通知，并删除超过两个重建周期的记录
+            String addedKey = BLOOM_ADDED_KEY + name;
+            long now = System.currentTimeMillis();
+            stringRedisTemplate.opsForZSet().removeRangeByScore(addedKey, 0, now - 2 * rebuildIntervalMillis);
+            Set<String> added = stringRedisTemplate.opsForZSet().range(addedKey, 0, -1);
+            if (added != null)
+            {
+                for (String id : added)
+                {
+                    filter.put(Long.parseLong(id));
+                }
+            }
+            // 先切换到新的过滤器，之后新增的id直接加入新的过滤器，再补充扫描期间新增的id
+            maxIds.put(name, lastId);
+            filters.put(name, filter);
+            for (Long id : pending)
+            {
+                filter.put(id);
+            }
+            if (cacheKeyPrefix != null)
+            {
+                cacheClient.setBloomFilter(cacheKeyPrefix, id -> mightContain(name, id));
+            }
+            log.info("布隆过滤器{}构建完成，id数量：{}，位数：{}", name, count, filter.bitSize());
+        } catch (Exception e) {
+            // 构建失败时继续使用旧的过滤器
+            log.error("布隆过滤器{}构建失败", name, e);
+        } finally {
+            addedDuringRebuild.remove(name, pending);
+        }
+    }
+}
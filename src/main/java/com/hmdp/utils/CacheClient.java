@@ -1,19 +1,33 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.LongPredicate;
 
 @Component
 @Slf4j
@@ -22,7 +36,26 @@ public class CacheClient
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
+    @Resource
+    private StripedLockFactory stripedLockFactory;
+
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = UserContext.wrap(Executors.newFixedThreadPool(10));
+
+    /**
+     * 按Key前缀注册的布隆过滤器，过滤器判断不存在的id直接返回null，不访问Redis和数据库
+     */
+    private final Map<String, LongPredicate> bloomFilters = new ConcurrentHashMap<>();
+
+    /**
+     * @param mightContain 判断id是否可能存在，一般是BloomFilterManager.mightContain
+     */
+    public void setBloomFilter(String keyPrefix, LongPredicate mightContain)
+    {
+        bloomFilters.put(keyPrefix, mightContain);
+    }
 
     public void setWithExpireTime(String key, Object value, Long expire, TimeUnit timeUnit)
     {
@@ -40,33 +73,81 @@ public class CacheClient
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id
             , Class<R> type, Function<ID, R> dbFallBack, Long expire, TimeUnit timeUnit)
     {
+        if (!mightExist(keyPrefix, id))
+        {
+            HotPathMetrics.CACHE_BLOOM_REJECT.increment();
+            return null;
+        }
         String key = keyPrefix + id;
         String json = stringRedisTemplate.opsForValue().get(key);
         if (StrUtil.isNotBlank(json))
         {
+            HotPathMetrics.CACHE_HIT.increment();
             return JSONUtil.toBean(json, type);
         }
         if (json != null)
         {
+            HotPathMetrics.CACHE_NULL_HIT.increment();
             return null;
         }
+        HotPathMetrics.CACHE_MISS.increment();
+        long start = System.nanoTime();
         R r = dbFallBack.apply(id);
         if (r == null)
         {
             stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
-            return null;
         }
-        this.setWithExpireTime(key, r, expire, timeUnit);
+        else
+        {
+            this.setWithExpireTime(key, r, expire, timeUnit);
+        }
+        HotPathMetrics.CACHE_REBUILD.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         return r;
     }
 
+    /**
+     * queryWithPassThrough的非阻塞版本，缓存命中（包括空值）时在Lettuce的IO线程中直接返回，不占用请求线程
+     * 未命中时需要查询数据库，交给boundedElastic线程池执行阻塞的queryWithPassThrough
+     * @return 数据不存在时返回空的Mono
+     */
+    public <R, ID> Mono<R> queryWithPassThroughReactive(String keyPrefix, ID id
+            , Class<R> type, Function<ID, R> dbFallBack, Long expire, TimeUnit timeUnit)
+    {
+        if (!mightExist(keyPrefix, id))
+        {
+            HotPathMetrics.CACHE_BLOOM_REJECT.increment();
+            return Mono.empty();
+        }
+        return reactiveStringRedisTemplate.opsForValue().get(keyPrefix + id)
+                .map(json -> {
+                    if (StrUtil.isBlank(json))
+                    {
+                        HotPathMetrics.CACHE_NULL_HIT.increment();
+                        return Optional.<R>empty();
+                    }
+                    HotPathMetrics.CACHE_HIT.increment();
+                    return Optional.of(JSONUtil.toBean(json, type));
+                })
+                .switchIfEmpty(Mono.fromCallable(() -> Optional.ofNullable(
+                                queryWithPassThrough(keyPrefix, id, type, dbFallBack, expire, timeUnit)))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallBack
             , String lockPrefix, Long expire, TimeUnit unit)
     {
+        if (!mightExist(keyPrefix, id))
+        {
+            HotPathMetrics.CACHE_BLOOM_REJECT.increment();
+            return null;
+        }
         String key = keyPrefix + id;
         String json = stringRedisTemplate.opsForValue().get(key);
         if (StrUtil.isBlank(json))
         {
+            HotPathMetrics.CACHE_MISS.increment();
             return null;
         }
         RedisData redisData = JSONUtil.toBean(json, RedisData.class);
@@ -75,35 +156,247 @@ public class CacheClient
         R r = JSONUtil.toBean(data, type);
         if (expireTime.isAfter(LocalDateTime.now()))
         {
+            HotPathMetrics.CACHE_HIT.increment();
             return r;
         }
+        HotPathMetrics.CACHE_STALE.increment();
         String lockKey = lockPrefix + id;
-        boolean isLock = tryLock(lockKey);
-        if (isLock)
+        // 本节点已经有线程在重建时不再提交任务
+        if (!stripedLockFactory.isLocked(lockKey))
+        {
+            CACHE_REBUILD_EXECUTOR.submit(() -> rebuildWithLogicalExpire(key, lockKey, id, dbFallBack, expire, unit));
+        }
+        return r;
+    }
+
+    /**
+     * 在重建线程中获取锁后重建，锁与线程绑定，加锁和解锁都在重建线程中；本节点的其他线程在本地直接失败，不访问Redis
+     */
+    private <R, ID> void rebuildWithLogicalExpire(String key, String lockKey, ID id, Function<ID, R> dbFallBack
+            , Long expire, TimeUnit unit)
+    {
+        StripedLock lock = stripedLockFactory.getLock(lockKey);
+        if (!lock.tryLock(RedisConstants.LOCK_SHOP_TTL))
+        {
+            return;
+        }
+        try {
+            // 其他节点可能已经重建完成
+            String json = stringRedisTemplate.opsForValue().get(key);
+            if (StrUtil.isNotBlank(json)
+                    && JSONUtil.toBean(json, RedisData.class).getExpireTime().isAfter(LocalDateTime.now()))
+            {
+                return;
+            }
+            long start = System.nanoTime();
+            R rFromDB = dbFallBack.apply(id);
+            this.setWithLogicalExpireTime(key, rFromDB, expire, unit);
+            HotPathMetrics.CACHE_REBUILD.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 批量查询，解决缓存穿透
+     * 一次MGET查询所有Key，未命中的id一次性交给batchDbFallBack查询数据库，再用Pipeline写回缓存，
+     * 数据库中不存在的id写入空值
+     * @param idGetter 从查询结果中取出id，用于把数据库的结果与请求的id对应起来
+     * @return 按ids的顺序返回存在的数据
+     */
+    public <R, ID> List<R> queryManyWithPassThrough(String keyPrefix, Collection<ID> ids, Class<R> type
+            , Function<Collection<ID>, List<R>> batchDbFallBack, Function<R, ID> idGetter
+            , Long expire, TimeUnit timeUnit)
+    {
+        List<ID> idList = filterMightExist(keyPrefix, ids);
+        if (idList.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keysOf(keyPrefix, idList));
+        Map<ID, R> found = new HashMap<>();
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++)
         {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json))
+            {
+                HotPathMetrics.CACHE_HIT.increment();
+                found.put(idList.get(i), JSONUtil.toBean(json, type));
+            }
+            else if (json != null)
+            {
+                HotPathMetrics.CACHE_NULL_HIT.increment();
+            }
+            else
+            {
+                HotPathMetrics.CACHE_MISS.increment();
+                misses.add(idList.get(i));
+            }
+        }
+        if (!misses.isEmpty())
+        {
+            long start = System.nanoTime();
+            Map<ID, R> fromDB = new HashMap<>();
+            for (R r : batchDbFallBack.apply(misses))
+            {
+                fromDB.put(idGetter.apply(r), r);
+            }
+            Expiration expiration = Expiration.from(expire, timeUnit);
+            Expiration nullExpiration = Expiration.from(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (ID id : misses)
+                {
+                    R r = fromDB.get(id);
+                    if (r == null)
+                    {
+                        conn.set(keyPrefix + id, "", nullExpiration, RedisStringCommands.SetOption.upsert());
+                    }
+                    else
+                    {
+                        conn.set(keyPrefix + id, JSONUtil.toJsonStr(r), expiration, RedisStringCommands.SetOption.upsert());
+                    }
+                }
+                return null;
+            });
+            found.putAll(fromDB);
+            HotPathMetrics.CACHE_REBUILD.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        List<R> result = new ArrayList<>(idList.size());
+        for (ID id : idList)
+        {
+            R r = found.get(id);
+            if (r != null)
+            {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量查询，逻辑过期解决缓存击穿
+     * 一次MGET查询所有Key，过期的数据先返回旧值，用Pipeline批量获取重建锁，
+     * 拿到锁的id合并成一次batchDbFallBack在后台重建
+     * @return 按ids的顺序返回缓存中存在的数据
+     */
+    public <R, ID> List<R> queryManyWithLogicalExpire(String keyPrefix, Collection<ID> ids, Class<R> type
+            , Function<Collection<ID>, List<R>> batchDbFallBack, Function<R, ID> idGetter
+            , String lockPrefix, Long expire, TimeUnit unit)
+    {
+        List<ID> idList = filterMightExist(keyPrefix, ids);
+        if (idList.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keysOf(keyPrefix, idList));
+        List<R> result = new ArrayList<>(idList.size());
+        List<ID> expired = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < idList.size(); i++)
+        {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isBlank(json))
+            {
+                HotPathMetrics.CACHE_MISS.increment();
+                continue;
+            }
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            result.add(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            if (redisData.getExpireTime().isAfter(now))
+            {
+                HotPathMetrics.CACHE_HIT.increment();
+            }
+            else
+            {
+                HotPathMetrics.CACHE_STALE.increment();
+                expired.add(idList.get(i));
+            }
+        }
+        if (expired.isEmpty())
+        {
+            return result;
+        }
+        // 批量获取重建锁
+        Expiration lockExpiration = Expiration.seconds(RedisConstants.LOCK_SHOP_TTL);
+        List<Object> locked = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ID id : expired)
+            {
+                conn.set(lockPrefix + id, "1", lockExpiration, RedisStringCommands.SetOption.ifAbsent());
+            }
+            return null;
+        });
+        List<ID> rebuildIds = new ArrayList<>();
+        for (int i = 0; i < expired.size(); i++)
+        {
+            if (Boolean.TRUE.equals(locked.get(i)))
+            {
+                rebuildIds.add(expired.get(i));
+            }
+        }
+        if (rebuildIds.isEmpty())
+        {
+            return result;
+        }
+        CACHE_REBUILD_EXECUTOR.submit(() -> {
+            long start = System.nanoTime();
             try {
-                CACHE_REBUILD_EXECUTOR.submit(() -> {
-                    R rFromDB = dbFallBack.apply(id);
-                    this.setWithLogicalExpireTime(key, rFromDB, expire, unit);
+                List<R> fromDB = batchDbFallBack.apply(rebuildIds);
+                LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(expire));
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (R r : fromDB)
+                    {
+                        RedisData redisData = new RedisData();
+                        redisData.setExpireTime(expireTime);
+                        redisData.setData(r);
+                        conn.set(keyPrefix + idGetter.apply(r), JSONUtil.toJsonStr(redisData));
+                    }
+                    return null;
                 });
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+                HotPathMetrics.CACHE_REBUILD.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             } finally {
-                unLock(lockKey);
+                stringRedisTemplate.delete(keysOf(lockPrefix, rebuildIds));
             }
-        }
-        return r;
+        });
+        return result;
     }
 
-    private boolean tryLock(String key)
+    private <ID> boolean mightExist(String keyPrefix, ID id)
     {
-        Boolean flag = stringRedisTemplate.opsForValue()
-                .setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+        LongPredicate bloomFilter = bloomFilters.get(keyPrefix);
+        return bloomFilter == null || !(id instanceof Number) || bloomFilter.test(((Number) id).longValue());
     }
 
-    private void unLock(String key)
+    /**
+     * 去掉布隆过滤器判断不存在的id
+     */
+    private <ID> List<ID> filterMightExist(String keyPrefix, Collection<ID> ids)
     {
-        stringRedisTemplate.delete(key);
+        List<ID> idList = new ArrayList<>(ids.size());
+        for (ID id : ids)
+        {
+            if (mightExist(keyPrefix, id))
+            {
+                idList.add(id);
+            }
+            else
+            {
+                HotPathMetrics.CACHE_BLOOM_REJECT.increment();
+            }
+        }
+        return idList;
+    }
+
+    private static <ID> List<String> keysOf(String keyPrefix, List<ID> ids)
+    {
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : ids)
+        {
+            keys.add(keyPrefix + id);
+        }
+        return keys;
     }
 }
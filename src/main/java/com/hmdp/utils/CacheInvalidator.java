@@ -0,0 +1,278 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存失效组件
+ * 1. 在事务中调用时，删除操作推迟到事务提交之后执行，避免提交前其他请求把旧数据重新写回缓存；同一事务中的Key合并成一次DEL
+ * 2. 删除失败的Key写入本地文件，定期重试直到成功，重启后也会继续重试
+ * 3. 配置了延迟时间时，在第一次删除后再延迟删除一次，清除并发读请求在提交前读到并写回的旧值
+ */
+@Slf4j
+@Component
+public class CacheInvalidator
+{
+    /**
+     * 一次DEL命令最多删除的Key数量
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ResponseCacheManager responseCacheManager;
+
+    /**
+     * 重试文件需要在重启后保留，默认和图片存储一样放在工作目录的data目录下，不使用会被系统清理的临时目录
+     */
+    @Value("${hmdp.cache.invalidation.retry-file:data/cache-invalidation.log}")
+    private String retryFile;
+
+    @Value("${hmdp.cache.invalidation.double-delete-delay-ms:0}")
+    private long doubleDeleteDelayMillis;
+
+    /**
+     * 等待重试的Key，和重试文件的内容保持一致
+     */
+    private final Set<String> retryKeys = new LinkedHashSet<>();
+
+    private final ScheduledExecutorService delayedDeleteExecutor = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("cache-invalidator-").setDaemon(true).build());
+
+    @PostConstruct
+    public void init() throws IOException
+    {
+        // 加载上次没有重试成功的Key
+        Path path = Paths.get(retryFile).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        if (Files.exists(path))
+        {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8))
+            {
+                if (!line.isEmpty())
+                {
+                    retryKeys.add(line);
+                }
+            }
+            log.info("加载待重试删除的缓存Key：{}个", retryKeys.size());
+        }
+    }
+
+    /**
+     * 删除缓存Key，在事务中调用时推迟到事务提交后执行
+     */
+    public void delete(String... keys)
+    {
+        delete(Arrays.asList(keys));
+    }
+
+    public void delete(Collection<String> keys)
+    {
+        if (keys.isEmpty())
+        {
+            return;
+        }
+        Pending pending = currentPending();
+        if (pending == null)
+        {
+            deleteNow(keys);
+            return;
+        }
+        pending.keys.addAll(keys);
+    }
+
+    /**
+     * 让接口响应缓存失效，在事务中调用时推迟到事务提交后执行
+     */
+    public void evictResponse(String... paths)
+    {
+        Pending pending = currentPending();
+        if (pending == null)
+        {
+            for (String path : paths)
+            {
+                responseCacheManager.evict(path);
+            }
+            return;
+        }
+        pending.paths.addAll(Arrays.asList(paths));
+    }
+
+    /**
+     * 获取当前事务中待执行的失效操作，第一次获取时注册事务回调；不在事务中时返回null
+     */
+    private Pending currentPending()
+    {
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            return null;
+        }
+        Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+        if (pending != null)
+        {
+            return pending;
+        }
+        Pending created = new Pending();
+        TransactionSynchronizationManager.bindResource(this, created);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+        {
+            @Override
+            public void afterCommit()
+            {
+                if (!created.keys.isEmpty())
+                {
+                    deleteNow(created.keys);
+                }
+                for (String path : created.paths)
+                {
+                    responseCacheManager.evict(path);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status)
+            {
+                // 事务回滚时数据库没有变化，不需要删除缓存
+                TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidator.this);
+            }
+        });
+        return created;
+    }
+
+    private void deleteNow(Collection<String> keys)
+    {
+        List<String> failed = deleteInBatches(keys);
+        if (!failed.isEmpty())
+        {
+            addRetry(failed);
+        }
+        if (doubleDeleteDelayMillis > 0)
+        {
+            List<String> copy = new ArrayList<>(keys);
+            delayedDeleteExecutor.schedule(() -> {
+                List<String> delayedFailed = deleteInBatches(copy);
+                if (!delayedFailed.isEmpty())
+                {
+                    addRetry(delayedFailed);
+                }
+            }, doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 分批删除，返回删除失败的Key
+     */
+    private List<String> deleteInBatches(Collection<String> keys)
+    {
+        List<String> all = new ArrayList<>(keys);
+        List<String> failed = new ArrayList<>();
+        for (int i = 0; i < all.size(); i += BATCH_SIZE)
+        {
+            List<String> batch = all.subList(i, Math.min(i + BATCH_SIZE, all.size()));
+            try {
+                stringRedisTemplate.delete(batch);
+            } catch (Exception e) {
+                log.warn("删除缓存失败，稍后重试：{}", batch, e);
+                failed.addAll(batch);
+            }
+        }
+        return failed;
+    }
+
+    private synchronized void addRetry(List<String> keys)
+    {
+        if (!retryKeys.addAll(keys))
+        {
+            return;
+        }
+        try {
+            Files.write(Paths.get(retryFile), keys, StandardCharsets.UTF_8
+                    , StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        } catch (IOException e) {
+            // 文件写入失败时仍然保留在内存中重试
+            log.error("写入缓存删除重试文件失败", e);
+        }
+    }
+
+    /**
+     * 定期重试删除失败的Key
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.invalidation.retry-interval-ms:1000}")
+    public void retry()
+    {
+        List<String> keys;
+        synchronized (this)
+        {
+            if (retryKeys.isEmpty())
+            {
+                return;
+            }
+            keys = new ArrayList<>(retryKeys);
+        }
+        List<String> failed = deleteInBatches(keys);
+        synchronized (this)
+        {
+            keys.removeAll(failed);
+            retryKeys.removeAll(keys);
+            rewriteRetryFile();
+        }
+    }
+
+    private void rewriteRetryFile()
+    {
+        Path path = Paths.get(retryFile);
+        try {
+            if (retryKeys.isEmpty())
+            {
+                Files.deleteIfExists(path);
+                return;
+            }
+            Path tmp = Paths.get(retryFile + ".tmp");
+            Files.write(tmp, retryKeys, StandardCharsets.UTF_8);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("更新缓存删除重试文件失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        delayedDeleteExecutor.shutdownNow();
+    }
+
+    private static class Pending
+    {
+        private final Set<String> keys = new LinkedHashSet<>();
+
+        private final Set<String> paths = new LinkedHashSet<>();
+    }
+}
@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 标记公共只读接口的响应可以被缓存
+ * 命中时直接写出已经编码好的JSON字节，不再查询Redis/MySQL，也不再经过Jackson序列化
+ * 只缓存GET请求中success为true的Result
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CacheResponse
+{
+    /**
+     * 缓存的有效时间
+     */
+    long ttl() default 60;
+
+    /**
+     * 有效时间的单位
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * 是否额外保存一份gzip压缩后的字节，客户端支持gzip时直接返回压缩结果
+     */
+    boolean gzip() default true;
+}
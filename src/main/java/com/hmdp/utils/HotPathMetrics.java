@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * 热点路径上的监控指标，全部在类加载时注册到全局的MeterRegistry
+ * Spring Boot会把Prometheus的MeterRegistry加入全局注册表，通过/actuator/prometheus暴露
+ * 调用时直接使用静态字段，不在请求中创建标签或者查找指标；不在Spring容器中使用时（例如基准测试）不会产生开销
+ */
+public class HotPathMetrics
+{
+    // 缓存
+    public static final Counter CACHE_HIT = cacheRequest("hit");
+    public static final Counter CACHE_MISS = cacheRequest("miss");
+    public static final Counter CACHE_NULL_HIT = cacheRequest("null_hit");
+    public static final Counter CACHE_STALE = cacheRequest("stale");
+    public static final Counter CACHE_BLOOM_REJECT = cacheRequest("bloom_reject");
+    public static final Timer CACHE_REBUILD = Timer.builder("hmdp.cache.rebuild")
+            .description("缓存未命中或者逻辑过期后查询数据库并写回缓存的耗时")
+            .register(Metrics.globalRegistry);
+
+    // 全局ID生成
+    public static final Timer ID_GENERATE = Timer.builder("hmdp.id.generate")
+            .description("RedisIdGenerator生成ID的次数和耗时")
+            .register(Metrics.globalRegistry);
+
+    // 分布式锁
+    public static final Counter LOCK_ACQUIRE_SUCCESS = lockAcquire("success");
+    public static final Counter LOCK_ACQUIRE_FAIL = lockAcquire("fail");
+    public static final Timer LOCK_HOLD = Timer.builder("hmdp.lock.hold")
+            .description("SimpleRedisLock从获取到释放的时间")
+            .register(Metrics.globalRegistry);
+
+    // 秒杀脚本结果，下标即脚本的返回值，最后一个用于未知的返回值
+    private static final String[] SECKILL_RESULTS = {"success", "no_stock", "repeat", "not_started", "ended", "unknown"};
+    private static final Counter[] SECKILL_RESULT_COUNTERS = new Counter[SECKILL_RESULTS.length];
+
+    static {
+        for (int i = 0; i < SECKILL_RESULTS.length; i++)
+        {
+            SECKILL_RESULT_COUNTERS[i] = Counter.builder("hmdp.seckill.result")
+                    .description("SecKill.lua的返回结果分布")
+                    .tag("result", SECKILL_RESULTS[i])
+                    .register(Metrics.globalRegistry);
+        }
+    }
+
+    // 拦截器中的Redis调用
+    public static final Timer REFRESH_TOKEN_REDIS = Timer.builder("hmdp.interceptor.redis")
+            .description("拦截器中访问Redis的耗时")
+            .tag("interceptor", "refresh_token")
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry);
+
+    public static Counter seckillResult(int result)
+    {
+        if (result < 0 || result >= SECKILL_RESULT_COUNTERS.length - 1)
+        {
+            return SECKILL_RESULT_COUNTERS[SECKILL_RESULT_COUNTERS.length - 1];
+        }
+        return SECKILL_RESULT_COUNTERS[result];
+    }
+
+    private static Counter cacheRequest(String result)
+    {
+        return Counter.builder("hmdp.cache.requests")
+                .description("CacheClient的查询结果")
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Counter lockAcquire(String result)
+    {
+        return Counter.builder("hmdp.lock.acquire")
+                .description("SimpleRedisLock获取锁的结果")
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+}
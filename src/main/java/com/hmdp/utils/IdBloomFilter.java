@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 只保存long类型id的布隆过滤器，位数组在堆内，支持并发写入
+ * mightContain返回false时id一定不存在，返回true时有fpp的概率误判
+ */
+public class IdBloomFilter
+{
+    private final AtomicLongArray bits;
+
+    private final long numBits;
+
+    private final int numHashFunctions;
+
+    /**
+     * @param expectedInsertions 预计保存的id数量
+     * @param fpp 期望的误判率，例如0.01
+     */
+    public IdBloomFilter(long expectedInsertions, double fpp)
+    {
+        long n = Math.max(1, expectedInsertions);
+        // m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+        long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE, Math.max(1, (m + 63) >>> 6));
+        this.bits = new AtomicLongArray(words);
+        this.numBits = (long) words << 6;
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    public void put(long id)
+    {
+        long h1 = mix(id);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashFunctions; i++)
+        {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old = bits.get(word);
+            while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask))
+            {
+                old = bits.get(word);
+            }
+        }
+    }
+
+    public boolean mightContain(long id)
+    {
+        long h1 = mix(id);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < numHashFunctions; i++)
+        {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long bitSize()
+    {
+        return numBits;
+    }
+
+    /**
+     * SplitMix64的混淆函数，把连续的自增id打散
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
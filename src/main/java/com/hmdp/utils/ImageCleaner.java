@@ -0,0 +1,441 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static com.hmdp.utils.RedisConstants.UPLOAD_OWNERS_KEY;
+
+/**
+ * 博文图片的清理
+ * 1. 相同内容的图片只保存一份，每次上传把上传者记录到图片的上传者集合中，集合在宽限期后过期
+ *    只有上传者可以删除自己的上传，删除请求只移除自己的记录并进入队列，由后台定期成批处理，
+ *    删除前确认没有其他上传者、也没有博文引用该图片
+ * 2. 定期扫描tb_blog.images中引用的图片，把引用记录成64位摘要的紧凑集合，再遍历存储目录，删除没有被引用的图片和缩略图
+ *    刚上传还没有发布的图片在宽限期内不会被删除，删除速度受限，避免影响磁盘IO；清理在单独的线程中执行，不占用定时任务的线程
+ */
+@Slf4j
+@Component
+public class ImageCleaner
+{
+    private static final String IMAGE_URL_PREFIX = "/imgs";
+
+    @Resource
+    private BlobStore blobStore;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.image.delete-batch-size:100}")
+    private int deleteBatchSize;
+
+    @Value("${hmdp.image.gc-chunk-size:1000}")
+    private int gcChunkSize;
+
+    @Value("${hmdp.image.gc-grace-ms:86400000}")
+    private long gcGraceMillis;
+
+    @Value("${hmdp.image.gc-deletes-per-second:50}")
+    private int gcDeletesPerSecond;
+
+    private final BlockingQueue<String> deleteQueue = new LinkedBlockingQueue<>(10000);
+
+    /**
+     * 同一张图片的登记上传者和删除文件互斥，图片保存在本机的存储目录中，本地锁即可
+     */
+    private final Object[] fileLocks = new Object[64];
+
+    private final ExecutorService gcExecutor = Executors.newSingleThreadExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("image-gc-").setDaemon(true).build());
+
+    private final AtomicBoolean collecting = new AtomicBoolean();
+
+    {
+        for (int i = 0; i < fileLocks.length; i++)
+        {
+            fileLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * 登记图片的上传者，返回false表示图片刚被删除，需要重新保存后再登记
+     */
+    public boolean registerUpload(String name, Long userId)
+    {
+        String key = UPLOAD_OWNERS_KEY + name;
+        synchronized (fileLock(name))
+        {
+            stringRedisTemplate.opsForSet().add(key, userId.toString());
+            stringRedisTemplate.expire(key, gcGraceMillis, TimeUnit.MILLISECONDS);
+            return Files.exists(blobStore.resolve(name));
+        }
+    }
+
+    /**
+     * 提交删除请求，只能删除自己上传的图片；队列满时放弃，由定期清理回收
+     * @return false表示不是该用户上传的图片
+     */
+    public boolean enqueueDelete(String name, Long userId)
+    {
+        Long removed = stringRedisTemplate.opsForSet().remove(UPLOAD_OWNERS_KEY + name, userId.toString());
+        if (removed == null || removed == 0)
+        {
+            return false;
+        }
+        if (!deleteQueue.offer(name))
+        {
+            log.warn("图片删除队列已满，等待定期清理：{}", name);
+        }
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.image.delete-interval-ms:1000}")
+    public void processDeletes()
+    {
+        List<String> batch = new ArrayList<>(deleteBatchSize);
+        while (deleteQueue.drainTo(batch, deleteBatchSize) > 0)
+        {
+            try {
+                deleteUnreferenced(batch);
+            } catch (Exception e) {
+                log.error("删除图片失败：{}", batch, e);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 一次查询确认这批图片的引用情况，只删除没有被引用、也没有其他上传者的图片
+     */
+    private void deleteUnreferenced(List<String> names)
+    {
+        QueryWrapper<Blog> query = new QueryWrapper<Blog>().select("images");
+        query.and(w -> {
+            for (String name : names)
+            {
+                w.or().like("images", name);
+            }
+        });
+        List<Object> referenced = blogMapper.selectObjs(query);
+        for (String name : names)
+        {
+            boolean inUse = false;
+            for (Object images : referenced)
+            {
+                if (images != null && images.toString().contains(name))
+                {
+                    inUse = true;
+                    break;
+                }
+            }
+            if (!inUse)
+            {
+                deleteIfUnowned(name);
+            }
+        }
+    }
+
+    /**
+     * 没有上传者时删除图片，与登记上传者互斥，避免删除刚刚重新上传的相同图片
+     */
+    private boolean deleteIfUnowned(String name)
+    {
+        synchronized (fileLock(name))
+        {
+            Long owners = stringRedisTemplate.opsForSet().size(UPLOAD_OWNERS_KEY + name);
+            if (owners != null && owners > 0)
+            {
+                return false;
+            }
+            deleteFiles(name);
+            return true;
+        }
+    }
+
+    private Object fileLock(String name)
+    {
+        return fileLocks[(name.hashCode() & 0x7fffffff) % fileLocks.length];
+    }
+
+    /**
+     * 定期回收没有被引用的图片
+     * 删除受速率限制，清理可能持续很久，放到单独的线程中执行，上一次没有结束时跳过
+     */
+    @Scheduled(initialDelayString = "${hmdp.image.gc-initial-delay-ms:3600000}"
+            , fixedDelayString = "${hmdp.image.gc-interval-ms:86400000}")
+    public void collectGarbage()
+    {
+        if (!collecting.compareAndSet(false, true))
+        {
+            return;
+        }
+        gcExecutor.execute(() -> {
+            try {
+                doCollectGarbage();
+            } finally {
+                collecting.set(false);
+            }
+        });
+    }
+
+    private void doCollectGarbage()
+    {
+        try {
+            LongHashSet referenced = loadReferences();
+            long deleted = sweepOriginals(referenced) + sweepThumbnails();
+            log.info("图片清理完成，引用的图片：{}，删除的文件：{}", referenced.size(), deleted);
+        } catch (Exception e) {
+            log.error("图片清理失败", e);
+        }
+    }
+
+    /**
+     * 按id分批读取所有博文引用的图片
+     */
+    private LongHashSet loadReferences()
+    {
+        LongHashSet referenced = new LongHashSet(1 << 16);
+        long lastId = 0;
+        while (true)
+        {
+            List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>().select("id", "images")
+                    .gt("id", lastId).orderByAsc("id").last("limit " + gcChunkSize));
+            for (Blog blog : blogs)
+            {
+                lastId = blog.getId();
+                for (String image : StrUtil.split(blog.getImages(), ','))
+                {
+                    if (StrUtil.isNotBlank(image))
+                    {
+                        referenced.add(fingerprint(StrUtil.removePrefix(image.trim(), IMAGE_URL_PREFIX)));
+                    }
+                }
+            }
+            if (blogs.size() < gcChunkSize)
+            {
+                return referenced;
+            }
+        }
+    }
+
+    private long sweepOriginals(LongHashSet referenced) throws IOException, InterruptedException
+    {
+        Path dir = blobStore.getRoot().resolve("blogs");
+        if (!Files.isDirectory(dir))
+        {
+            return 0;
+        }
+        long deleted = 0;
+        long deadline = System.currentTimeMillis() - gcGraceMillis;
+        try (Stream<Path> files = Files.walk(dir))
+        {
+            Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+            while (it.hasNext())
+            {
+                Path file = it.next();
+                String name = "/" + blobStore.getRoot().relativize(file).toString().replace('\\', '/');
+                if (referenced.contains(fingerprint(name)) || Files.getLastModifiedTime(file).toMillis() > deadline)
+                {
+                    continue;
+                }
+                if (deleteIfUnowned(name))
+                {
+                    deleted++;
+                    throttle();
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 删除原图已经不存在的缩略图
+     */
+    private long sweepThumbnails() throws IOException, InterruptedException
+    {
+        Path thumbs = blobStore.getRoot().resolve("thumbs");
+        if (!Files.isDirectory(thumbs))
+        {
+            return 0;
+        }
+        long deleted = 0;
+        try (Stream<Path> files = Files.walk(thumbs))
+        {
+            Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+            while (it.hasNext())
+            {
+                Path file = it.next();
+                // thumbs/{宽度}/ab/cd/{hash}.jpg 对应 blogs/ab/cd/{hash}.*
+                Path relative = thumbs.relativize(file);
+                if (relative.getNameCount() < 2)
+                {
+                    continue;
+                }
+                Path originalDir = blobStore.getRoot().resolve("blogs")
+                        .resolve(relative.subpath(1, relative.getNameCount())).getParent();
+                String base = StrUtil.subBefore(file.getFileName().toString(), ".", true);
+                if (hasOriginal(originalDir, base))
+                {
+                    continue;
+                }
+                Files.deleteIfExists(file);
+                deleted++;
+                throttle();
+            }
+        }
+        return deleted;
+    }
+
+    private static boolean hasOriginal(Path dir, String base) throws IOException
+    {
+        if (!Files.isDirectory(dir))
+        {
+            return false;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, base + ".*"))
+        {
+            return files.iterator().hasNext();
+        }
+    }
+
+    private void deleteFiles(String name)
+    {
+        try {
+            for (Path path : blobStore.allFilesOf(name))
+            {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("删除图片失败：{}", name, e);
+        }
+    }
+
+    private void throttle() throws InterruptedException
+    {
+        if (gcDeletesPerSecond > 0)
+        {
+            TimeUnit.MICROSECONDS.sleep(1000000L / gcDeletesPerSecond);
+        }
+    }
+
+    private static long fingerprint(String name)
+    {
+        return MurmurHash.hash64(name);
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        gcExecutor.shutdownNow();
+    }
+
+    /**
+     * 开放寻址的long集合，每个元素只占8个字节；0作为空槽，值为0的元素用1代替
+     */
+    private static class LongHashSet
+    {
+        private long[] table;
+
+        private int size;
+
+        LongHashSet(int capacity)
+        {
+            table = new long[Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1];
+        }
+
+        void add(long value)
+        {
+            if (value == 0)
+            {
+                value = 1;
+            }
+            if ((size + 1) * 2 > table.length)
+            {
+                resize();
+            }
+            if (insert(table, value))
+            {
+                size++;
+            }
+        }
+
+        boolean contains(long value)
+        {
+            if (value == 0)
+            {
+                value = 1;
+            }
+            int mask = table.length - 1;
+            for (int i = (int) (value ^ (value >>> 32)) & mask; table[i] != 0; i = (i + 1) & mask)
+            {
+                if (table[i] == value)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        private static boolean insert(long[] table, long value)
+        {
+            int mask = table.length - 1;
+            int i = (int) (value ^ (value >>> 32)) & mask;
+            while (table[i] != 0)
+            {
+                if (table[i] == value)
+                {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = value;
+            return true;
+        }
+
+        private void resize()
+        {
+            long[] bigger = new long[table.length << 1];
+            for (long value : table)
+            {
+                if (value != 0)
+                {
+                    insert(bigger, value);
+                }
+            }
+            table = bigger;
+        }
+    }
+}
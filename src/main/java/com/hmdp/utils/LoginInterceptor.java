@@ -6,6 +6,7 @@ import com.hmdp.dto.UserDTO;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
@@ -18,6 +19,11 @@ public class LoginInterceptor implements HandlerInterceptor
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
             throws Exception
     {
+        // 异步接口完成后的再次分发，已经在第一次分发时校验过
+        if (request.getDispatcherType() == DispatcherType.ASYNC)
+        {
+            return true;
+        }
         // 本拦截器当中只需要判断是否需要拦截，RefreshToken拦截器当中已经处理了token的延时操作，并将用户信息存储到UserHolder中
         if (UserHolder.getUser() == null)
         {
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.SecureUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个Lua脚本，保存当前版本的内容和SHA1，以及执行耗时的指标
+ * 执行时只发送EVALSHA；Redis重启、主从切换后新的主节点没有缓存脚本时返回NOSCRIPT，
+ * 此时改用EVAL发送脚本内容，EVAL会把脚本缓存在Key所在的节点上，之后的EVALSHA不再失败
+ * 脚本内容可以在运行时更新，更新后版本号加一，正在执行的调用不受影响
+ */
+public final class LuaScript<T>
+{
+    @Getter
+    private final String name;
+
+    @Getter
+    private final Class<T> resultType;
+
+    private final ReturnType returnType;
+
+    @Getter
+    private final Timer timer;
+
+    private final Counter noScript;
+
+    private volatile Version current;
+
+    private LuaScript(String name, Class<T> resultType, String source)
+    {
+        this.name = name;
+        this.resultType = resultType;
+        this.returnType = ReturnType.fromJavaType(resultType);
+        this.current = new Version(1, source);
+        this.timer = Timer.builder("hmdp.redis.script")
+                .description("Lua脚本的执行耗时")
+                .tag("script", name)
+                .register(Metrics.globalRegistry);
+        this.noScript = Counter.builder("hmdp.redis.script.noscript")
+                .description("EVALSHA返回NOSCRIPT后改用EVAL的次数")
+                .tag("script", name)
+                .register(Metrics.globalRegistry);
+        Metrics.globalRegistry.gauge("hmdp.redis.script.version", Tags.of("script", name), this, LuaScript::getVersion);
+    }
+
+    /**
+     * 从classpath加载脚本，脚本名称即文件名
+     */
+    public static <T> LuaScript<T> classpath(String location, Class<T> resultType)
+    {
+        try {
+            String source = StreamUtils.copyToString(new ClassPathResource(location).getInputStream()
+                    , StandardCharsets.UTF_8);
+            return new LuaScript<>(location, resultType, source);
+        } catch (IOException e) {
+            throw new UncheckedIOException("加载Lua脚本失败：" + location, e);
+        }
+    }
+
+    public String getSha1()
+    {
+        return current.sha1;
+    }
+
+    public String getSource()
+    {
+        return current.source;
+    }
+
+    public int getVersion()
+    {
+        return current.version;
+    }
+
+    /**
+     * 更新脚本内容，内容没有变化时返回false
+     */
+    public synchronized boolean update(String source)
+    {
+        if (source.equals(current.source))
+        {
+            return false;
+        }
+        current = new Version(current.version + 1, source);
+        return true;
+    }
+
+    /**
+     * 通过EVALSHA执行，NOSCRIPT时改用EVAL
+     */
+    @SuppressWarnings("unchecked")
+    public T execute(StringRedisTemplate stringRedisTemplate, List<String> keys, Object... args)
+    {
+        Version version = current;
+        byte[][] keysAndArgs = keysAndArgs(keys, args);
+        long start = System.nanoTime();
+        try {
+            Object result = stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                try {
+                    return connection.evalSha(version.sha1, returnType, keys.size(), keysAndArgs);
+                } catch (RuntimeException e) {
+                    if (!isNoScript(e))
+                    {
+                        throw e;
+                    }
+                    noScript.increment();
+                    return connection.eval(version.source.getBytes(StandardCharsets.UTF_8), returnType
+                            , keys.size(), keysAndArgs);
+                }
+            });
+            return (T) decode(result);
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void recordNoScript()
+    {
+        noScript.increment();
+    }
+
+    private static byte[][] keysAndArgs(List<String> keys, Object[] args)
+    {
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        int i = 0;
+        for (String key : keys)
+        {
+            keysAndArgs[i++] = key.getBytes(StandardCharsets.UTF_8);
+        }
+        for (Object arg : args)
+        {
+            keysAndArgs[i++] = String.valueOf(arg).getBytes(StandardCharsets.UTF_8);
+        }
+        return keysAndArgs;
+    }
+
+    /**
+     * 脚本返回的字符串是byte[]，转换成String
+     */
+    private static Object decode(Object result)
+    {
+        if (result instanceof byte[])
+        {
+            return new String((byte[]) result, StandardCharsets.UTF_8);
+        }
+        if (result instanceof List)
+        {
+            List<?> values = (List<?>) result;
+            List<Object> decoded = new ArrayList<>(values.size());
+            for (Object value : values)
+            {
+                decoded.add(decode(value));
+            }
+            return decoded;
+        }
+        return result;
+    }
+
+    /**
+     * 异常经过Spring的转换后类型不固定，按错误信息判断
+     */
+    static boolean isNoScript(Throwable e)
+    {
+        for (Throwable t = e; t != null; t = t.getCause())
+        {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT"))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Version
+    {
+        private final int version;
+
+        private final String source;
+
+        private final String sha1;
+
+        Version(int version, String source)
+        {
+            this.version = version;
+            this.source = source;
+            this.sha1 = SecureUtil.sha1(source);
+        }
+    }
+}
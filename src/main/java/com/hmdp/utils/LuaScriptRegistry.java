@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lua脚本的统一加载和热更新
+ * 启动时用SCRIPT LOAD把LuaScripts中的所有脚本加载到Redis，之后的执行只发送SHA1
+ * 配置hmdp.redis.script-dir后定期检查该目录中与脚本同名的文件，内容变化时先加载新版本，再切换脚本的版本
+ */
+@Slf4j
+@Component
+public class LuaScriptRegistry
+{
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 热更新的目录，为空时不开启
+     */
+    @Value("${hmdp.redis.script-dir:}")
+    private String scriptDir;
+
+    /**
+     * 热更新目录中每个文件上次加载时的修改时间
+     */
+    private final Map<String, Long> loadedModified = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void loadAll()
+    {
+        for (LuaScript<?> script : LuaScripts.ALL)
+        {
+            load(script.getName(), script.getSource());
+        }
+        reload();
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.redis.script-reload-interval-ms:5000}")
+    public void reload()
+    {
+        if (StrUtil.isBlank(scriptDir))
+        {
+            return;
+        }
+        for (LuaScript<?> script : LuaScripts.ALL)
+        {
+            Path file = Paths.get(scriptDir, script.getName());
+            try {
+                if (!Files.isRegularFile(file))
+                {
+                    continue;
+                }
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                Long last = loadedModified.get(script.getName());
+                if (last != null && last == modified)
+                {
+                    continue;
+                }
+                String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                // 先加载到Redis再切换，切换后的第一次调用就能命中EVALSHA；加载失败时保留旧版本，下次重试
+                if (!load(script.getName(), source))
+                {
+                    continue;
+                }
+                loadedModified.put(script.getName(), modified);
+                if (script.update(source))
+                {
+                    log.info("Lua脚本已更新：{}，版本：{}，SHA1：{}", script.getName(), script.getVersion(), script.getSha1());
+                }
+            } catch (IOException e) {
+                log.warn("读取Lua脚本失败：{}", file, e);
+            }
+        }
+    }
+
+    /**
+     * 加载失败时只记录日志，执行时通过NOSCRIPT回退到EVAL
+     */
+    private boolean load(String name, String source)
+    {
+        try {
+            String sha1 = stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    connection.scriptLoad(source.getBytes(StandardCharsets.UTF_8)));
+            log.debug("Lua脚本已加载：{}，SHA1：{}", name, sha1);
+            return true;
+        } catch (Exception e) {
+            log.warn("加载Lua脚本失败：{}", name, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 项目中所有的Lua脚本，启动时由LuaScriptRegistry统一加载到Redis
+ * 脚本文件放在classpath根目录下，配置hmdp.redis.script-dir后可以用该目录中的同名文件热更新
+ */
+public final class LuaScripts
+{
+    /**
+     * 秒杀资格判断，返回值见SecKill.lua
+     */
+    public static final LuaScript<Long> SECKILL = LuaScript.classpath("SecKill.lua", Long.class);
+
+    /**
+     * SimpleRedisLock的解锁
+     */
+    public static final LuaScript<Long> UNLOCK = LuaScript.classpath("unlock.lua", Long.class);
+
+    /**
+     * RedisReentrantLock的加锁、解锁和续期
+     */
+    public static final LuaScript<Long> REENTRANT_LOCK = LuaScript.classpath("reentrantLock.lua", Long.class);
+    public static final LuaScript<Long> REENTRANT_UNLOCK = LuaScript.classpath("reentrantUnlock.lua", Long.class);
+    public static final LuaScript<Long> REENTRANT_RENEW = LuaScript.classpath("reentrantRenew.lua", Long.class);
+
+    /**
+     * ShopCounters取出Redis中的增量
+     */
+    public static final LuaScript<List> SHOP_COUNTER_DRAIN = LuaScript.classpath("shopCounterDrain.lua", List.class);
+
+    /**
+     * RedisKeyMigration合并旧的店铺计数器
+     */
+    public static final LuaScript<Long> SHOP_COUNTER_MERGE = LuaScript.classpath("shopCounterMerge.lua", Long.class);
+
+    public static final List<LuaScript<?>> ALL = Collections.unmodifiableList(Arrays.asList(
+            SECKILL, UNLOCK, REENTRANT_LOCK, REENTRANT_UNLOCK, REENTRANT_RENEW, SHOP_COUNTER_DRAIN
+            , SHOP_COUNTER_MERGE));
+
+    private LuaScripts()
+    {
+    }
+}
@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 响应式路径的请求准入控制
+ * 请求不占用线程，能同时等待Redis响应的请求数只受内存限制，因此用信号量限制在途请求数，
+ * 超过上限时直接拒绝，不让Lettuce的命令队列无限增长
+ * 等待超时只提前给客户端返回，不取消已经发出的命令（例如已经扣减库存的秒杀脚本），名额在命令真正完成后才释放
+ */
+@Component
+public class ReactiveAdmission
+{
+    /**
+     * 开启后秒杀和店铺详情接口使用响应式路径，关闭时使用AsyncRequestExecutor
+     */
+    @Getter
+    @Value("${hmdp.reactive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${hmdp.reactive.max-in-flight:10000}")
+    private int maxInFlight;
+
+    @Value("${hmdp.reactive.timeout-ms:3000}")
+    private long timeoutMillis;
+
+    private Semaphore permits;
+
+    @PostConstruct
+    public void init()
+    {
+        permits = new Semaphore(maxInFlight);
+        Gauge.builder("hmdp.reactive.in_flight", permits, p -> maxInFlight - p.availablePermits())
+                .description("响应式路径上等待Redis响应的请求数")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * 获取名额后订阅请求，请求完成或者失败后释放名额；超时时返回RejectedExecutionException，只适用于没有副作用的请求
+     */
+    public <T> CompletableFuture<T> admit(Supplier<Mono<T>> request)
+    {
+        return admit(request, null);
+    }
+
+    /**
+     * 获取名额后订阅请求，请求完成或者失败后释放名额
+     * @param onTimeout 超时时返回给客户端的结果，例如“处理中”；为null时返回RejectedExecutionException
+     */
+    public <T> CompletableFuture<T> admit(Supplier<Mono<T>> request, Supplier<T> onTimeout)
+    {
+        if (!permits.tryAcquire())
+        {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(new RejectedExecutionException("在途请求数已达上限"));
+            return future;
+        }
+        Mono<T> mono;
+        try {
+            mono = request.get();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        CompletableFuture<T> response = new CompletableFuture<>();
+        Disposable timer = Schedulers.parallel().schedule(() -> {
+            if (onTimeout != null)
+            {
+                response.complete(onTimeout.get());
+            }
+            else
+            {
+                response.completeExceptionally(new RejectedExecutionException("等待Redis响应超时"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        // 超时后命令继续执行，不取消订阅
+        mono.doFinally(signal -> permits.release())
+                .subscribe(response::complete, response::completeExceptionally, () -> response.complete(null));
+        response.whenComplete((result, e) -> timer.dispose());
+        return response;
+    }
+}
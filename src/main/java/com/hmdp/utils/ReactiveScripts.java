@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Resource;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过Lettuce的响应式API执行Lua脚本，调用线程不等待Redis的响应
+ * 脚本在启动时已经由LuaScriptRegistry加载，执行时只发送EVALSHA；Redis重启或者主从切换后返回NOSCRIPT，
+ * 此时改用EVAL发送脚本内容，之后的请求继续使用EVALSHA
+ */
+@Slf4j
+@Component
+public class ReactiveScripts
+{
+    @Resource
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
+    /**
+     * 执行返回整数的脚本
+     */
+    public Mono<Long> executeForLong(LuaScript<Long> script, List<String> keys, String... args)
+    {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            String sha1 = script.getSha1();
+            String source = script.getSource();
+            return evalSha(sha1, keys, args)
+                    .onErrorResume(LuaScript::isNoScript, e -> {
+                        log.warn("Redis中没有Lua脚本，重新发送脚本：{}", script.getName());
+                        script.recordNoScript();
+                        return eval(source, keys, args);
+                    })
+                    .doFinally(signal -> script.getTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    private Mono<Long> evalSha(String sha1, List<String> keys, String[] args)
+    {
+        // 每次执行都重新编码参数，ByteBuffer发送后不能再次使用
+        return reactiveStringRedisTemplate.execute(connection -> connection.scriptingCommands()
+                .<Long>evalSha(sha1, ReturnType.INTEGER, keys.size(), keysAndArgs(keys, args))).next();
+    }
+
+    private Mono<Long> eval(String source, List<String> keys, String[] args)
+    {
+        return reactiveStringRedisTemplate.execute(connection -> connection.scriptingCommands()
+                .<Long>eval(encode(source), ReturnType.INTEGER, keys.size(), keysAndArgs(keys, args))).next();
+    }
+
+    private static ByteBuffer[] keysAndArgs(List<String> keys, String[] args)
+    {
+        ByteBuffer[] buffers = new ByteBuffer[keys.size() + args.length];
+        int i = 0;
+        for (String key : keys)
+        {
+            buffers[i++] = encode(key);
+        }
+        for (String arg : args)
+        {
+            buffers[i++] = encode(arg);
+        }
+        return buffers;
+    }
+
+    private static ByteBuffer encode(String value)
+    {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,5 +1,8 @@
 package com.hmdp.utils;
 
+/**
+ * 单独访问的Key的前缀，需要在Lua脚本中一起访问的Key见RedisKeys
+ */
 public class RedisConstants {
     public static final String LOGIN_CODE_KEY = "login:code:";
     public static final Long LOGIN_CODE_TTL = 2L;
@@ -12,12 +15,21 @@ public class RedisConstants {
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE = "cache:type:";
 
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final Long CACHE_VOUCHER_TTL = 30L;
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
-    public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final Long SECKILL_WINDOW_LOCAL_TTL = 60L;
+    public static final String SECKILL_ORDER_DEAD_LETTER_KEY = "seckill:order:dead";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String UPLOAD_OWNERS_KEY = "upload:owners:";
+    public static final String BLOOM_ADDED_KEY = "bloom:added:";
 }
@@ -1,12 +1,15 @@
 package com.hmdp.utils;
 
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class RedisIdGenerator
@@ -24,8 +27,12 @@ public class RedisIdGenerator
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
     public long nextId(String keyPrefix)
     {
+        long start = System.nanoTime();
         // 生成时间戳
         LocalDateTime current = LocalDateTime.now();
         long currentTimeStamp = current.toEpochSecond(ZoneOffset.UTC);
@@ -35,10 +42,27 @@ public class RedisIdGenerator
         String date = current.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
         // 自增长序列
         long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        HotPathMetrics.ID_GENERATE.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         // 拼接返回
         return timeStamp << COUNT_BITS | count;
     }
 
+    /**
+     * 与nextId相同，通过响应式API自增序列号，不阻塞调用线程
+     */
+    public Mono<Long> nextIdReactive(String keyPrefix)
+    {
+        long start = System.nanoTime();
+        LocalDateTime current = LocalDateTime.now();
+        long timeStamp = current.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        String date = current.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        return reactiveStringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date)
+                .map(count -> {
+                    HotPathMetrics.ID_GENERATE.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    return timeStamp << COUNT_BITS | count;
+                });
+    }
+
 //    public static void main(String[] args) 
 //    {
 //        LocalDateTime localDateTime = LocalDateTime.of(2025, 1, 1, 0, 0, 0);
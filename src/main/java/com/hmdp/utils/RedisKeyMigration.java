@@ -0,0 +1,156 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 把单节点时期的Key迁移到RedisKeys的布局，启动时执行一次，没有旧Key时只有几次SCAN
+ * seckill:stock:{id}等旧Key用RENAMENX改名，新Key已经存在时保留新Key；旧的计数器增量合并到新的计数器中
+ * 旧布局只能运行在单节点上，使用集群时不需要迁移
+ * 多个节点同时启动时由获得锁的节点迁移，其他节点等待迁移完成后再继续启动，不会在新Key还不存在时处理秒杀
+ */
+@Slf4j
+@Component
+public class RedisKeyMigration
+{
+    private static final String LEGACY_SECKILL_STOCK = "seckill:stock:";
+    private static final String LEGACY_SECKILL_ORDER = "seckill:order:";
+    private static final String LEGACY_SECKILL_WINDOW = "seckill:window:";
+    private static final String LEGACY_SHOP_COUNTER = "shop:counter:";
+    private static final String LEGACY_SHOP_COUNTER_DIRTY = "shop:counter:dirty";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisProperties redisProperties;
+
+    @Resource
+    private RedisLockFactory redisLockFactory;
+
+    @Value("${hmdp.redis.migrate-legacy-keys:true}")
+    private boolean enabled;
+
+    /**
+     * 等待其他节点完成迁移的最长时间，超时时启动失败
+     */
+    @Value("${hmdp.redis.migration-wait-ms:300000}")
+    private long waitMillis;
+
+    @PostConstruct
+    public void migrate()
+    {
+        if (!enabled || redisProperties.getCluster() != null)
+        {
+            return;
+        }
+        // 多个节点同时启动时只由一个节点迁移，其他节点等到锁释放后再检查一遍，此时已经没有旧Key
+        // 启动阶段消息监听容器还没有运行，收不到解锁通知，这里轮询
+        RedisReentrantLock lock = redisLockFactory.getLock("redis:key-migration");
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (!lock.tryLock())
+        {
+            if (System.currentTimeMillis() > deadline)
+            {
+                throw new IllegalStateException("等待其他节点完成Redis Key迁移超时");
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待Redis Key迁移时被中断", e);
+            }
+        }
+        try {
+            int renamed = rename(LEGACY_SECKILL_STOCK, RedisKeys::seckillStock)
+                    + rename(LEGACY_SECKILL_ORDER, RedisKeys::seckillOrder)
+                    + rename(LEGACY_SECKILL_WINDOW, RedisKeys::seckillWindow);
+            int counters = mergeShopCounters();
+            if (renamed > 0 || counters > 0)
+            {
+                log.info("Redis Key迁移完成，秒杀Key：{}，店铺计数器：{}", renamed, counters);
+            }
+        } catch (Exception e) {
+            // 迁移了一部分时新旧Key同时存在，秒杀会读不到库存，不能继续启动；重新启动后继续迁移剩余的Key
+            throw new IllegalStateException("Redis Key迁移失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int rename(String legacyPrefix, Function<Long, String> newKey)
+    {
+        int renamed = 0;
+        for (String key : scan(legacyPrefix + "*"))
+        {
+            String id = key.substring(legacyPrefix.length());
+            if (!StrUtil.isNumeric(id))
+            {
+                continue;
+            }
+            if (Boolean.TRUE.equals(stringRedisTemplate.renameIfAbsent(key, newKey.apply(Long.valueOf(id)))))
+            {
+                renamed++;
+            }
+            else
+            {
+                log.warn("新的Key已经存在，保留旧Key：{}", key);
+            }
+        }
+        return renamed;
+    }
+
+    /**
+     * 把旧的增量加到新的计数器上，并记录到对应分桶的待刷新集合，每个店铺在一个脚本中原子地完成
+     */
+    private int mergeShopCounters()
+    {
+        Set<String> ids = stringRedisTemplate.opsForSet().members(LEGACY_SHOP_COUNTER_DIRTY);
+        if (ids == null || ids.isEmpty())
+        {
+            return 0;
+        }
+        for (String id : ids)
+        {
+            Long shopId = Long.valueOf(id);
+            LuaScripts.SHOP_COUNTER_MERGE.execute(stringRedisTemplate, Arrays.asList(LEGACY_SHOP_COUNTER_DIRTY
+                    , LEGACY_SHOP_COUNTER + id, RedisKeys.shopCounter(shopId)
+                    , RedisKeys.shopCounterDirty(RedisKeys.shopCounterBucket(shopId))), id);
+        }
+        return ids.size();
+    }
+
+    private List<String> scan(String pattern)
+    {
+        return stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> keys = new ArrayList<>();
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(pattern).count(1000).build()))
+            {
+                while (cursor.hasNext())
+                {
+                    keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return keys;
+        });
+    }
+}
@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 需要在同一个Lua脚本或者事务中一起访问的Key，按Redis Cluster的hash tag生成
+ * Cluster只用{}中的部分计算槽位，同一组的Key使用相同的hash tag，保证落在同一个槽位，例如
+ * seckill:{1}:stock、seckill:{1}:order、seckill:{1}:window 都按 "1" 计算槽位；不同优惠券的Key分散到不同的节点
+ * 只单独访问的Key仍然使用RedisConstants中的前缀
+ */
+public final class RedisKeys
+{
+    /**
+     * 店铺计数器的分桶数，同一个桶的待刷新集合和计数器在同一个槽位，不同的桶分散到不同的节点
+     */
+    public static final int SHOP_COUNTER_BUCKETS = 16;
+
+    private RedisKeys()
+    {
+    }
+
+    /**
+     * 秒杀库存，String
+     */
+    public static String seckillStock(Long voucherId)
+    {
+        return "seckill:{" + voucherId + "}:stock";
+    }
+
+    /**
+     * 秒杀成功的用户，Set
+     */
+    public static String seckillOrder(Long voucherId)
+    {
+        return "seckill:{" + voucherId + "}:order";
+    }
+
+    /**
+     * 秒杀时间，Hash，begin和end为毫秒时间戳
+     */
+    public static String seckillWindow(Long voucherId)
+    {
+        return "seckill:{" + voucherId + "}:window";
+    }
+
+    /**
+     * SecKill.lua的KEYS：库存、订单、秒杀时间
+     */
+    public static List<String> seckillKeys(Long voucherId)
+    {
+        return Arrays.asList(seckillStock(voucherId), seckillOrder(voucherId), seckillWindow(voucherId));
+    }
+
+    public static int shopCounterBucket(Long shopId)
+    {
+        return (int) Math.floorMod(shopId, (long) SHOP_COUNTER_BUCKETS);
+    }
+
+    /**
+     * 店铺在Redis中还没有刷新到数据库的计数增量，Hash
+     */
+    public static String shopCounter(Long shopId)
+    {
+        return shopCounterTag(shopCounterBucket(shopId)) + ":" + shopId;
+    }
+
+    /**
+     * 一个桶中待刷新的店铺id，Set
+     */
+    public static String shopCounterDirty(int bucket)
+    {
+        return shopCounterTag(bucket) + ":dirty";
+    }
+
+    /**
+     * 一个桶中已经从计数器取出、还没有确认写入数据库的增量，Hash，店铺id -> "sold,comments,score"
+     */
+    public static String shopCounterInflight(int bucket)
+    {
+        return shopCounterTag(bucket) + ":inflight";
+    }
+
+    private static String shopCounterTag(int bucket)
+    {
+        return "{shop:counter:" + bucket + "}";
+    }
+}
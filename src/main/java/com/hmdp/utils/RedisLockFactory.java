@@ -0,0 +1,155 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.ThreadFactoryBuilder;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可重入分布式锁的工厂，所有锁共用看门狗线程和解锁通知的订阅
+ */
+@Component
+public class RedisLockFactory
+{
+    /**
+     * 确认订阅时的探测消息，只用于确认订阅，不会唤醒等待者；解锁通知的内容是1，见reentrantUnlock.lua
+     */
+    private static final String PROBE = "0";
+
+    /**
+     * 发布探测消息的间隔
+     */
+    private static final long PROBE_INTERVAL_MILLIS = 50;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 当前节点的标识，与锁对象的标识拼接后作为锁的持有者
+     */
+    private final String clientId = UUID.randomUUID().toString(true);
+
+    /**
+     * 看门狗线程，为持有中的锁续期
+     */
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder.create().setNamePrefix("lock-watchdog-").setDaemon(true).build());
+
+    /**
+     * 正在等待解锁通知的频道，同一频道的等待者共用一个订阅
+     */
+    private final Map<String, UnlockSubscription> subscriptions = new ConcurrentHashMap<>();
+
+    public RedisReentrantLock getLock(String name)
+    {
+        return new RedisReentrantLock(this, name);
+    }
+
+    StringRedisTemplate getStringRedisTemplate()
+    {
+        return stringRedisTemplate;
+    }
+
+    ScheduledExecutorService getWatchdog()
+    {
+        return watchdog;
+    }
+
+    String getClientId()
+    {
+        return clientId;
+    }
+
+    /**
+     * 订阅解锁通知，订阅的信号量在收到通知时释放一个许可；返回后需要调用unsubscribe
+     */
+    UnlockSubscription subscribe(String channel)
+    {
+        return subscriptions.compute(channel, (k, subscription) -> {
+            if (subscription == null)
+            {
+                subscription = new UnlockSubscription(channel);
+                redisMessageListenerContainer.addMessageListener(subscription.listener, new ChannelTopic(channel));
+            }
+            subscription.refs++;
+            return subscription;
+        });
+    }
+
+    /**
+     * 监听容器异步执行SUBSCRIBE，向频道发布探测消息，收到任意消息（包括其他等待者的探测消息）即说明订阅已经生效
+     * @param deadline 最晚等到的时间（毫秒时间戳），超时后不再等待，由等待锁过期兜底
+     */
+    void awaitSubscribed(UnlockSubscription subscription, long deadline) throws InterruptedException
+    {
+        while (subscription.confirmed.getCount() > 0 && System.currentTimeMillis() < deadline)
+        {
+            stringRedisTemplate.convertAndSend(subscription.channel, PROBE);
+            subscription.confirmed.await(PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void unsubscribe(String channel)
+    {
+        subscriptions.computeIfPresent(channel, (k, subscription) -> {
+            if (--subscription.refs > 0)
+            {
+                return subscription;
+            }
+            redisMessageListenerContainer.removeMessageListener(subscription.listener, new ChannelTopic(channel));
+            return null;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        watchdog.shutdownNow();
+    }
+
+    static class UnlockSubscription
+    {
+        private final String channel;
+        private final Semaphore semaphore = new Semaphore(0);
+        private final CountDownLatch confirmed = new CountDownLatch(1);
+        private final MessageListener listener = (message, pattern) -> {
+            confirmed.countDown();
+            // 探测消息不是解锁通知，不释放许可，否则会唤醒所有节点上的等待者并留下多余的许可
+            if (!PROBE.equals(new String(message.getBody(), StandardCharsets.UTF_8)))
+            {
+                semaphore.release();
+            }
+        };
+        /**
+         * 只在compute中修改，由ConcurrentHashMap保证互斥
+         */
+        private int refs;
+
+        UnlockSubscription(String channel)
+        {
+            this.channel = channel;
+        }
+
+        Semaphore getSemaphore()
+        {
+            return semaphore;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lettuce连接池的监控指标
+ * commons-pool2的连接池默认注册为JMX的MBean，连接池在第一次获取连接时才创建，因此定期扫描，发现新的连接池后注册指标
+ */
+@Slf4j
+@Component
+public class RedisPoolMetrics
+{
+    private static final String POOL_PATTERN = "org.apache.commons.pool2:type=GenericObjectPool,*";
+
+    /**
+     * 指标名称和MBean属性的对应关系
+     */
+    private static final String[][] ATTRIBUTES = {
+            {"hmdp.redis.pool.active", "NumActive", "借出的连接数"},
+            {"hmdp.redis.pool.idle", "NumIdle", "空闲的连接数"},
+            {"hmdp.redis.pool.waiters", "NumWaiters", "等待连接的线程数"},
+            {"hmdp.redis.pool.max", "MaxTotal", "连接池大小"},
+            {"hmdp.redis.pool.borrow_wait_max_ms", "MaxBorrowWaitTimeMillis", "获取连接的最长等待时间"}
+    };
+
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    private final Set<ObjectName> registered = ConcurrentHashMap.newKeySet();
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.redis.pool-metrics-interval-ms}")
+    public void registerPools()
+    {
+        Set<ObjectName> pools;
+        try {
+            pools = mBeanServer.queryNames(new ObjectName(POOL_PATTERN), null);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+        for (ObjectName pool : pools)
+        {
+            if (!registered.add(pool))
+            {
+                continue;
+            }
+            for (String[] attribute : ATTRIBUTES)
+            {
+                Gauge.builder(attribute[0], pool, name -> read(name, attribute[1]))
+                        .description(attribute[2])
+                        .tag("pool", pool.getKeyProperty("name"))
+                        .register(Metrics.globalRegistry);
+            }
+            log.info("已注册Redis连接池指标：{}", pool);
+        }
+    }
+
+    private double read(ObjectName pool, String attribute)
+    {
+        try {
+            return ((Number) mBeanServer.getAttribute(pool, attribute)).doubleValue();
+        } catch (Exception e) {
+            // 连接池已经关闭
+            return Double.NaN;
+        }
+    }
+}
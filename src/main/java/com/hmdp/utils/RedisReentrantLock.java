@@ -0,0 +1,199 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于Redis Hash的可重入锁，Hash中保存持有者和重入次数
+ * 持有者与锁对象绑定而不是与线程绑定，同一个锁对象可以重入，也可以在加锁之外的线程中释放，
+ * 因此线程池和虚拟线程中也可以正常使用，需要互斥的调用方各自通过RedisLockFactory获取锁对象
+ * 不指定租期时由看门狗定期续期，直到释放锁
+ */
+@Slf4j
+public class RedisReentrantLock implements ILock
+{
+    /**
+     * 与SimpleRedisLock的String类型的锁使用不同的前缀，同名的锁不会因为类型不同而报错
+     */
+    private static final String KEY_PREFIX = "rlock:";
+
+    private static final String CHANNEL_PREFIX = "rlock:channel:";
+
+    /**
+     * 看门狗模式下的租期，每隔三分之一租期续期一次
+     */
+    private static final long WATCHDOG_TIMEOUT = 30000L;
+
+    private final RedisLockFactory factory;
+
+    private final String key;
+
+    private final String channel;
+
+    private final String ownerId;
+
+    /**
+     * 本地记录的重入次数，用于决定何时启动和停止看门狗
+     */
+    private final AtomicInteger holdCount = new AtomicInteger();
+
+    /**
+     * 加锁时使用的租期，解锁后仍持有时用于重置过期时间
+     */
+    private volatile long leaseMillis = WATCHDOG_TIMEOUT;
+
+    private volatile ScheduledFuture<?> renewTask;
+
+    RedisReentrantLock(RedisLockFactory factory, String name)
+    {
+        this.factory = factory;
+        this.key = KEY_PREFIX + name;
+        this.channel = CHANNEL_PREFIX + name;
+        this.ownerId = factory.getClientId() + ":" + UUID.randomUUID().toString(true);
+    }
+
+    /**
+     * 尝试获取锁，不等待
+     * @param timeoutSec 锁持有的时间，过期后自动释放
+     */
+    @Override
+    public boolean tryLock(long timeoutSec)
+    {
+        return tryLock(0, timeoutSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 尝试获取锁，不等待，由看门狗续期直到释放
+     */
+    public boolean tryLock()
+    {
+        return tryLock(0, -1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 尝试获取锁，获取失败时订阅解锁通知，在等待时间内被唤醒后重试
+     * @param waitTime 最长等待时间
+     * @param leaseTime 锁持有的时间，小于等于0表示由看门狗续期直到释放
+     * @return true表示获取锁成功，false表示等待超时
+     */
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit)
+    {
+        boolean watchdogMode = leaseTime <= 0;
+        long lease = watchdogMode ? WATCHDOG_TIMEOUT : unit.toMillis(leaseTime);
+        Long ttl = tryAcquire(lease);
+        if (ttl == null)
+        {
+            onAcquired(lease, watchdogMode);
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + unit.toMillis(waitTime);
+        if (waitTime <= 0)
+        {
+            return false;
+        }
+        RedisLockFactory.UnlockSubscription subscription = factory.subscribe(channel);
+        try {
+            // 订阅生效之前发布的解锁通知收不到，等订阅确认后再重试
+            factory.awaitSubscribed(subscription, deadline);
+            Semaphore notification = subscription.getSemaphore();
+            while (true)
+            {
+                ttl = tryAcquire(lease);
+                if (ttl == null)
+                {
+                    onAcquired(lease, watchdogMode);
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    return false;
+                }
+                // 等待解锁通知，最多等到锁过期或者等待超时
+                notification.tryAcquire(ttl > 0 ? Math.min(ttl, remaining) : remaining, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            factory.unsubscribe(channel);
+        }
+    }
+
+    @Override
+    public void unlock()
+    {
+        Long result = LuaScripts.REENTRANT_UNLOCK.execute(factory.getStringRedisTemplate(), Collections.singletonList(key)
+                , channel, String.valueOf(leaseMillis), ownerId);
+        if (result == null)
+        {
+            // 锁已经过期或者被其他持有者获取
+            holdCount.set(0);
+            cancelRenew();
+            throw new IllegalMonitorStateException("未持有锁：" + key);
+        }
+        if (result == 1L)
+        {
+            holdCount.set(0);
+            cancelRenew();
+            return;
+        }
+        holdCount.decrementAndGet();
+    }
+
+    public boolean isHeldByCurrentOwner()
+    {
+        return holdCount.get() > 0;
+    }
+
+    /**
+     * @return null表示获取成功，否则为锁的剩余时间（毫秒）
+     */
+    private Long tryAcquire(long lease)
+    {
+        return LuaScripts.REENTRANT_LOCK.execute(factory.getStringRedisTemplate(), Collections.singletonList(key)
+                , String.valueOf(lease), ownerId);
+    }
+
+    private void onAcquired(long lease, boolean watchdogMode)
+    {
+        leaseMillis = lease;
+        if (holdCount.getAndIncrement() == 0 && watchdogMode)
+        {
+            long period = WATCHDOG_TIMEOUT / 3;
+            renewTask = factory.getWatchdog().scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void renew()
+    {
+        try {
+            Long renewed = LuaScripts.REENTRANT_RENEW.execute(factory.getStringRedisTemplate(), Collections.singletonList(key)
+                    , String.valueOf(WATCHDOG_TIMEOUT), ownerId);
+            if (renewed == null || renewed == 0L)
+            {
+                // 锁已经不再由自己持有，停止续期
+                cancelRenew();
+            }
+        } catch (Exception e) {
+            // 续期失败不停止看门狗，下个周期继续尝试
+            log.warn("锁续期失败：{}", key, e);
+        }
+    }
+
+    private void cancelRenew()
+    {
+        ScheduledFuture<?> task = renewTask;
+        if (task != null)
+        {
+            task.cancel(false);
+            renewTask = null;
+        }
+    }
+}
@@ -4,14 +4,15 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-public class RefreshTokenInterceptor implements HandlerInterceptor
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor
 {
     private StringRedisTemplate stringRedisTemplate;
 
@@ -24,23 +25,40 @@ public class RefreshTokenInterceptor implements HandlerInterceptor
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
             throws Exception
     {
+        // 异步接口完成后的再次分发只负责写出结果，不需要再刷新token
+        if (request.getDispatcherType() == DispatcherType.ASYNC)
+        {
+            return true;
+        }
         String token = request.getHeader("authorization");
         if (StrUtil.isBlank(token))
         {
             return true;
         }
         String key = RedisConstants.LOGIN_USER_KEY + token;
+        long start = System.nanoTime();
         Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
         if (userMap.isEmpty())
         {
+            HotPathMetrics.REFRESH_TOKEN_REDIS.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             return true;
         }
         UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         UserHolder.saveUser(userDTO);
         stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        HotPathMetrics.REFRESH_TOKEN_REDIS.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         return true;
     }
 
+    /**
+     * 接口返回异步结果时不会调用afterCompletion，需要在这里清除Tomcat线程中的用户
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler)
+    {
+        UserHolder.removeUser();
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         UserHolder.removeUser();
@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class ResponseCacheInterceptor implements HandlerInterceptor
+{
+    /**
+     * 请求开始时的缓存版本，ResponseCacheAdvice写入缓存时使用
+     */
+    public static final String VERSION_ATTRIBUTE = ResponseCacheInterceptor.class.getName() + ".VERSION";
+
+    private ResponseCacheManager responseCacheManager;
+
+    public ResponseCacheInterceptor(ResponseCacheManager responseCacheManager)
+    {
+        this.responseCacheManager = responseCacheManager;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws Exception
+    {
+        // 异步接口完成后的再次分发，第一次分发时已经查询过缓存
+        if (request.getDispatcherType() == DispatcherType.ASYNC
+                || !(handler instanceof HandlerMethod) || !"GET".equals(request.getMethod())
+                || !((HandlerMethod) handler).hasMethodAnnotation(CacheResponse.class))
+        {
+            return true;
+        }
+        ResponseCacheManager.CachedResponse cached = responseCacheManager.get(request);
+        if (cached == null)
+        {
+            // 未命中，记录当前版本，交给Controller处理后再写入缓存
+            request.setAttribute(VERSION_ATTRIBUTE, responseCacheManager.currentVersion(request));
+            return true;
+        }
+        response.setHeader(HttpHeaders.ETAG, cached.getEtag());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        // 客户端的副本仍然有效，直接返回304
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && ifNoneMatch.contains(cached.getEtag()))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+        }
+        byte[] body = cached.getBody();
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (cached.getGzipBody() != null && acceptEncoding != null && acceptEncoding.contains("gzip"))
+        {
+            body = cached.getGzipBody();
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        return false;
+    }
+}
@@ -0,0 +1,238 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 接口响应缓存，保存已经编码好的JSON字节
+ * 以请求路径加排序后的请求参数为Key，另外按路径记录Key，方便按路径整体失效
+ * 条数有上限，超过时淘汰最早写入的响应，过期的响应定期清除
+ */
+@Slf4j
+@Component
+public class ResponseCacheManager
+{
+    /**
+     * 最多缓存的响应条数，防止随意拼接参数把内存撑满
+     */
+    private static final int MAX_ENTRIES = 10000;
+
+    /**
+     * 失效版本按路径的哈希分段，一个路径失效只影响同一分段中正在查询的请求
+     */
+    private static final int VERSION_STRIPES = 1024;
+
+    /**
+     * 小于该大小的响应不做压缩，压缩收益不如头部开销
+     */
+    private static final int GZIP_MIN_SIZE = 1024;
+
+    private static final UrlPathHelper URL_PATH_HELPER = new UrlPathHelper();
+
+    /**
+     * 按写入顺序排列，只在持有锁时访问
+     */
+    private final LinkedHashMap<String, CachedResponse> cache = new LinkedHashMap<>(256);
+
+    /**
+     * 路径 -> 该路径下缓存的Key，与cache一起修改
+     */
+    private final Map<String, Set<String>> keysByPath = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 路径失效时自增所在分段的版本，写入前比较版本，避免失效之前查出的旧数据在失效之后被写回缓存
+     */
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    public long currentVersion(HttpServletRequest request)
+    {
+        return versions.get(versionStripe(pathOf(request)));
+    }
+
+    public CachedResponse get(HttpServletRequest request)
+    {
+        String key = keyOf(pathOf(request), queryOf(request));
+        CachedResponse cached;
+        lock.readLock().lock();
+        try {
+            cached = cache.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 过期的响应由定期清理或者下次写入替换
+        if (cached == null || cached.getExpireAt() < System.currentTimeMillis())
+        {
+            return null;
+        }
+        return cached;
+    }
+
+    /**
+     * 保存响应，如果从请求开始到现在该路径发生过失效则放弃写入
+     * @return 保存的缓存项，放弃写入时同样返回计算好的缓存项，方便设置ETag
+     */
+    public CachedResponse put(HttpServletRequest request, long expectVersion, byte[] body, long ttlMillis, boolean gzip)
+    {
+        CachedResponse cached = new CachedResponse(body, gzip && body.length >= GZIP_MIN_SIZE ? gzip(body) : null
+                , "\"" + DigestUtils.md5DigestAsHex(body) + "\"", System.currentTimeMillis() + ttlMillis);
+        String path = pathOf(request);
+        String key = keyOf(path, queryOf(request));
+        lock.writeLock().lock();
+        try {
+            // 在锁内比较版本，失效和写入不会交错
+            if (versions.get(versionStripe(path)) != expectVersion)
+            {
+                return cached;
+            }
+            // 先删除再写入，刷新后的响应排到最后
+            cache.remove(key);
+            cache.put(key, cached);
+            keysByPath.computeIfAbsent(path, k -> new HashSet<>()).add(key);
+            Iterator<Map.Entry<String, CachedResponse>> it = cache.entrySet().iterator();
+            while (cache.size() > MAX_ENTRIES && it.hasNext())
+            {
+                removeIndexed(it.next().getKey());
+                it.remove();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return cached;
+    }
+
+    /**
+     * 失效某个路径下所有参数组合的响应，例如 /blog/hot 的所有分页
+     */
+    public void evict(String path)
+    {
+        lock.writeLock().lock();
+        try {
+            versions.incrementAndGet(versionStripe(path));
+            Set<String> keys = keysByPath.remove(path);
+            if (keys != null)
+            {
+                for (String key : keys)
+                {
+                    cache.remove(key);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 定期清除过期的响应
+     */
+    @Scheduled(fixedDelayString = "${hmdp.response-cache.sweep-interval-ms:30000}")
+    public void sweep()
+    {
+        long now = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            Iterator<Map.Entry<String, CachedResponse>> it = cache.entrySet().iterator();
+            while (it.hasNext())
+            {
+                Map.Entry<String, CachedResponse> entry = it.next();
+                if (entry.getValue().getExpireAt() < now)
+                {
+                    removeIndexed(entry.getKey());
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 从路径索引中删除Key，需要持有写锁
+     */
+    private void removeIndexed(String key)
+    {
+        String path = key.substring(0, key.indexOf('?'));
+        Set<String> keys = keysByPath.get(path);
+        if (keys != null && keys.remove(key) && keys.isEmpty())
+        {
+            keysByPath.remove(path);
+        }
+    }
+
+    private static int versionStripe(String path)
+    {
+        int h = path.hashCode();
+        return (h ^ (h >>> 16)) & (VERSION_STRIPES - 1);
+    }
+
+    private static String keyOf(String path, String query)
+    {
+        return path + "?" + query;
+    }
+
+    private static String pathOf(HttpServletRequest request)
+    {
+        return URL_PATH_HELPER.getPathWithinApplication(request);
+    }
+
+    private static String queryOf(HttpServletRequest request)
+    {
+        Map<String, String[]> params = request.getParameterMap();
+        if (params.isEmpty())
+        {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String[]> entry : new TreeMap<>(params).entrySet())
+        {
+            for (String value : entry.getValue())
+            {
+                sb.append(entry.getKey()).append('=').append(value).append('&');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] gzip(byte[] body)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out))
+        {
+            gzip.write(body);
+        } catch (IOException e) {
+            log.warn("压缩响应失败", e);
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class CachedResponse
+    {
+        private final byte[] body;
+        private final byte[] gzipBody;
+        private final String etag;
+        private final long expireAt;
+    }
+}
@@ -0,0 +1,287 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DEAD_LETTER_KEY;
+
+/**
+ * 秒杀订单的异步落库
+ * 秒杀脚本判断有购买资格后，订单放入有界队列，接口直接返回订单id；一个写入线程成批取出订单，
+ * 按优惠券分别写入，每张优惠券一个事务，只执行一条INSERT IGNORE和一条扣减库存的UPDATE，见IVoucherOrderService.createVoucherOrders
+ * 一张优惠券写入失败时退避后重试，不影响同一批中的其他优惠券；重试后仍然失败的订单放入Redis中的死信队列，定期重新写入
+ * 队列满时由调用方直接写入一次，失败时同样放入死信队列，不在请求线程中重试
+ * 订单队列只在内存中，进程崩溃时队列中尚未写入的订单会丢失
+ */
+@Slf4j
+@Component
+public class SeckillOrderWriter
+{
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    /**
+     * 订单服务依赖本类提交订单，延迟注入
+     */
+    @Lazy
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisLockFactory redisLockFactory;
+
+    @Value("${hmdp.seckill.order.queue-capacity:100000}")
+    private int queueCapacity;
+
+    @Value("${hmdp.seckill.order.batch-size:500}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.order.max-retries:5}")
+    private int maxRetries;
+
+    private final Counter duplicated = Counter.builder("hmdp.seckill.order.duplicate")
+            .description("因为用户已经有该优惠券的订单而没有落库的订单数")
+            .register(Metrics.globalRegistry);
+
+    private final Counter failed = Counter.builder("hmdp.seckill.order.failed")
+            .description("重试后仍然落库失败、转入死信队列的订单数")
+            .register(Metrics.globalRegistry);
+
+    private BlockingQueue<VoucherOrder> queue;
+
+    private volatile boolean running;
+
+    private Thread worker;
+
+    @PostConstruct
+    public void start()
+    {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Metrics.globalRegistry.gaugeCollectionSize("hmdp.seckill.order.queue", Tags.empty(), queue);
+        running = true;
+        worker = new Thread(this::writeLoop, "seckill-order-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 放入队列，队列已满时返回false
+     */
+    public boolean offer(VoucherOrder order)
+    {
+        return queue.offer(order);
+    }
+
+    /**
+     * 放入队列，队列已满时在当前线程中直接写入
+     */
+    public void submit(VoucherOrder order)
+    {
+        if (!offer(order))
+        {
+            writeNow(order);
+        }
+    }
+
+    /**
+     * 在当前线程中写入一个订单，只尝试一次，失败时放入死信队列
+     */
+    public void writeNow(VoucherOrder order)
+    {
+        write(Collections.singletonList(order), 1);
+    }
+
+    private void writeLoop()
+    {
+        List<VoucherOrder> batch = new ArrayList<>(batchSize);
+        while (running)
+        {
+            try {
+                VoucherOrder first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch, maxRetries);
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按优惠券分别写入一批订单
+     */
+    private void write(List<VoucherOrder> batch, int attempts)
+    {
+        for (List<VoucherOrder> orders : groupByVoucher(batch))
+        {
+            writeWithRetry(orders, attempts);
+        }
+    }
+
+    private void writeWithRetry(List<VoucherOrder> orders, int attempts)
+    {
+        long backoff = 100;
+        for (int attempt = 1; ; attempt++)
+        {
+            try {
+                persist(orders);
+                return;
+            } catch (Exception e) {
+                if (attempt >= attempts)
+                {
+                    deadLetter(orders, e);
+                    return;
+                }
+                log.error("订单落库失败，{}ms后重试，订单数：{}", backoff, orders.size(), e);
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                deadLetter(orders, e);
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * 写入同一张优惠券的订单，用户已经有订单的只记录日志
+     */
+    private void persist(List<VoucherOrder> orders)
+    {
+        List<VoucherOrder> losers = voucherOrderService.createVoucherOrders(orders);
+        if (!losers.isEmpty())
+        {
+            duplicated.increment(losers.size());
+            log.warn("用户已经有该优惠券的订单，{}个订单没有落库：{}", losers.size(), ids(losers));
+        }
+    }
+
+    private void deadLetter(List<VoucherOrder> orders, Exception cause)
+    {
+        failed.increment(orders.size());
+        log.error("订单落库失败，{}个订单转入死信队列：{}", orders.size(), ids(orders), cause);
+        try {
+            stringRedisTemplate.opsForList().rightPushAll(SECKILL_ORDER_DEAD_LETTER_KEY, toJson(orders));
+        } catch (Exception e) {
+            // 只剩日志中的订单内容可以用于补单
+            log.error("写入死信队列失败，订单：{}", JSONUtil.toJsonStr(orders), e);
+        }
+    }
+
+    /**
+     * 重新写入死信队列中的订单，通过分布式锁保证同一时间只有一个节点处理
+     * 先把仍然失败的订单放回队尾，再删除已经取出的部分；两步之间崩溃时只会重复写入，订单落库是幂等的
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.order.dead-letter-interval-ms:60000}")
+    public void replayDeadLetters()
+    {
+        Long size = stringRedisTemplate.opsForList().size(SECKILL_ORDER_DEAD_LETTER_KEY);
+        if (size == null || size == 0)
+        {
+            return;
+        }
+        RedisReentrantLock lock = redisLockFactory.getLock("seckill:order:dead");
+        if (!lock.tryLock())
+        {
+            return;
+        }
+        try {
+            List<String> values = stringRedisTemplate.opsForList().range(SECKILL_ORDER_DEAD_LETTER_KEY, 0, batchSize - 1);
+            if (values == null || values.isEmpty())
+            {
+                return;
+            }
+            List<VoucherOrder> batch = values.stream()
+                    .map(value -> JSONUtil.toBean(value, VoucherOrder.class))
+                    .collect(Collectors.toList());
+            List<VoucherOrder> retained = new ArrayList<>();
+            for (List<VoucherOrder> orders : groupByVoucher(batch))
+            {
+                try {
+                    persist(orders);
+                } catch (Exception e) {
+                    log.warn("死信队列中的订单仍然落库失败，订单数：{}", orders.size(), e);
+                    retained.addAll(orders);
+                }
+            }
+            if (!retained.isEmpty())
+            {
+                stringRedisTemplate.opsForList().rightPushAll(SECKILL_ORDER_DEAD_LETTER_KEY, toJson(retained));
+            }
+            stringRedisTemplate.opsForList().trim(SECKILL_ORDER_DEAD_LETTER_KEY, values.size(), -1);
+            log.info("死信队列中的订单已重新写入：{}，仍然失败：{}", values.size() - retained.size(), retained.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Collection<List<VoucherOrder>> groupByVoucher(List<VoucherOrder> batch)
+    {
+        Map<Long, List<VoucherOrder>> byVoucher = batch.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, TreeMap::new, Collectors.toList()));
+        return byVoucher.values();
+    }
+
+    private static List<String> toJson(List<VoucherOrder> orders)
+    {
+        return orders.stream().map(JSONUtil::toJsonStr).collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<VoucherOrder> orders)
+    {
+        return orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * 停止写入线程，把队列中剩余的订单写入后再退出
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException
+    {
+        running = false;
+        if (worker != null)
+        {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        List<VoucherOrder> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0)
+        {
+            write(batch, 1);
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopCounterDelta;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 店铺销量、评论数、评分的异步计数器
+ * 1. 事件先累加到本地的LongAdder中，不访问Redis和数据库
+ * 2. 定期把本地增量用HINCRBY推送到Redis，并记录到所在分桶的待刷新集合，多个节点的增量在Redis中合并
+ *    同一个桶的计数器和待刷新集合在Redis Cluster的同一个槽位，见RedisKeys
+ * 3. 定期由一个节点取出Redis中的增量，用一条UPDATE ... CASE语句写入数据库，每次刷新只删除一次受影响店铺的缓存
+ *    取出的增量先转移到处理中的Hash，写入数据库后才删除；写入失败或者进程崩溃时，下次刷新先重新写入这批增量
+ *    数据库提交与删除处理中的Hash之间崩溃时这批增量会重复写入一次，不会丢失
+ */
+@Slf4j
+@Component
+public class ShopCounters
+{
+    private static final String[] FIELDS = {"sold", "comments", "score"};
+
+    private static final int SOLD = 0;
+    private static final int COMMENTS = 1;
+    private static final int SCORE = 2;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private RedisLockFactory redisLockFactory;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Value("${hmdp.shop-counter.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    public void incrementSold(Long shopId, long count)
+    {
+        add(shopId, SOLD, count);
+    }
+
+    public void incrementComments(Long shopId)
+    {
+        add(shopId, COMMENTS, 1);
+    }
+
+    public void addScore(Long shopId, long delta)
+    {
+        add(shopId, SCORE, delta);
+    }
+
+    private void add(Long shopId, int field, long delta)
+    {
+        if (shopId == null || delta == 0)
+        {
+            return;
+        }
+        counters.computeIfAbsent(shopId, id -> new Counter()).values[field].add(delta);
+    }
+
+    /**
+     * 把本地的增量推送到Redis
+     * 不重置LongAdder，而是记录已经推送的总数，避免并发累加时丢失增量
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop-counter.push-interval-ms:1000}")
+    public synchronized void pushToRedis()
+    {
+        Map<Long, long[]> pending = new HashMap<>();
+        counters.forEach((shopId, counter) -> {
+            long[] deltas = new long[FIELDS.length];
+            boolean changed = false;
+            for (int i = 0; i < FIELDS.length; i++)
+            {
+                deltas[i] = counter.values[i].sum() - counter.pushed[i];
+                changed |= deltas[i] != 0;
+            }
+            if (changed)
+            {
+                pending.put(shopId, deltas);
+            }
+        });
+        if (pending.isEmpty())
+        {
+            return;
+        }
+        try {
+            hincrby(pending);
+        } catch (Exception e) {
+            // 推送失败时保留本地增量，下次重试
+            log.error("店铺计数器推送到Redis失败", e);
+            return;
+        }
+        pending.forEach((shopId, deltas) -> {
+            Counter counter = counters.get(shopId);
+            for (int i = 0; i < FIELDS.length; i++)
+            {
+                counter.pushed[i] += deltas[i];
+            }
+        });
+    }
+
+    /**
+     * 把Redis中合并后的增量刷新到数据库，通过分布式锁保证同一时间只有一个节点刷新
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop-counter.flush-interval-ms:10000}")
+    public void flushToDatabase()
+    {
+        RedisReentrantLock lock = redisLockFactory.getLock("shop:counter:flush");
+        if (!lock.tryLock())
+        {
+            return;
+        }
+        try {
+            for (int bucket = 0; bucket < RedisKeys.SHOP_COUNTER_BUCKETS; bucket++)
+            {
+                while (flushBatch(bucket) >= flushBatchSize)
+                {
+                    // 待刷新的店铺超过一批时继续刷新
+                }
+            }
+        } catch (Exception e) {
+            log.error("店铺计数器刷新到数据库失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int flushBatch(int bucket)
+    {
+        // 先读出一批店铺id，再由脚本原子地取出增量；两步之间新增的增量会在脚本中一起取出
+        String dirtyKey = RedisKeys.shopCounterDirty(bucket);
+        String inflightKey = RedisKeys.shopCounterInflight(bucket);
+        Set<String> members = stringRedisTemplate.opsForSet().distinctRandomMembers(dirtyKey, flushBatchSize);
+        List<String> ids = members == null ? new ArrayList<>() : new ArrayList<>(members);
+        if (ids.isEmpty() && !Boolean.TRUE.equals(stringRedisTemplate.hasKey(inflightKey)))
+        {
+            return 0;
+        }
+        List<String> keys = new ArrayList<>(ids.size() + 2);
+        keys.add(dirtyKey);
+        keys.add(inflightKey);
+        for (String id : ids)
+        {
+            keys.add(RedisKeys.shopCounter(Long.valueOf(id)));
+        }
+        List<?> drained = LuaScripts.SHOP_COUNTER_DRAIN.execute(stringRedisTemplate, keys, ids.toArray());
+        if (drained == null || drained.isEmpty())
+        {
+            return 0;
+        }
+        List<ShopCounterDelta> deltas = new ArrayList<>(drained.size() / 4);
+        for (int i = 0; i + 3 < drained.size(); i += 4)
+        {
+            deltas.add(new ShopCounterDelta(Long.valueOf(drained.get(i).toString())
+                    , Long.valueOf(drained.get(i + 1).toString())
+                    , Long.valueOf(drained.get(i + 2).toString())
+                    , Long.valueOf(drained.get(i + 3).toString())));
+        }
+        // 写入失败时处理中的增量保留在Redis中，下次刷新重新写入
+        shopMapper.incrementCounters(deltas);
+        stringRedisTemplate.delete(inflightKey);
+        // 一次刷新只删除一次受影响店铺的缓存
+        List<String> cacheKeys = new ArrayList<>(deltas.size());
+        for (ShopCounterDelta delta : deltas)
+        {
+            cacheKeys.add(RedisConstants.CACHE_SHOP_KEY + delta.getShopId());
+            cacheInvalidator.evictResponse("/shop/" + delta.getShopId());
+        }
+        cacheInvalidator.delete(cacheKeys);
+        return deltas.size();
+    }
+
+    private void hincrby(Map<Long, long[]> deltas)
+    {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            deltas.forEach((shopId, values) -> {
+                String key = RedisKeys.shopCounter(shopId);
+                for (int i = 0; i < FIELDS.length; i++)
+                {
+                    if (values[i] != 0)
+                    {
+                        conn.hIncrBy(key, FIELDS[i], values[i]);
+                    }
+                }
+                conn.sAdd(RedisKeys.shopCounterDirty(RedisKeys.shopCounterBucket(shopId)), shopId.toString());
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 停机前把本地剩余的增量推送到Redis
+     */
+    @PreDestroy
+    public void shutdown()
+    {
+        pushToRedis();
+    }
+
+    private static class Counter
+    {
+        private final LongAdder[] values = {new LongAdder(), new LongAdder(), new LongAdder()};
+
+        /**
+         * 已经推送到Redis的总数，只在推送线程中访问
+         */
+        private final long[] pushed = new long[FIELDS.length];
+    }
+}
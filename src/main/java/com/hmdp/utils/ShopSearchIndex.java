@@ -0,0 +1,436 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 店铺名称和商圈的内存倒排索引，代替LIKE '%name%'的全表扫描
+ * 以单字和相邻两个字作为词项，中文不需要分词；查询时先用词项求交集，再校验是否包含关键字
+ * 索引中保存店铺数据的副本，搜索不访问数据库；启动后分批扫描数据库构建，店铺新增和修改时增量更新
+ * 在事务中修改店铺时，增量更新推迟到事务提交后执行，回滚的修改不会进入索引
+ */
+@Slf4j
+@Component
+public class ShopSearchIndex
+{
+    /**
+     * 按评分、销量从高到低排序，相同时按id升序
+     */
+    private static final Comparator<Shop> RANK = Comparator
+            .comparing((Shop s) -> s.getScore() == null ? 0 : s.getScore(), Comparator.reverseOrder())
+            .thenComparing(s -> s.getSold() == null ? 0 : s.getSold(), Comparator.reverseOrder())
+            .thenComparing(Shop::getId);
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Value("${hmdp.search.rebuild-chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * 分页时最多能翻到的结果数，页码乘以每页条数超过该值时返回空页
+     */
+    @Value("${hmdp.search.max-result-window:10000}")
+    private int maxResultWindow;
+
+    /**
+     * 构建完成之前为null
+     */
+    private volatile Index index;
+
+    /**
+     * 重建期间的增量更新，重建完成后重放到新的索引中；元素是Shop或者要删除的店铺id
+     */
+    private Queue<Object> pendingDuringRebuild;
+
+    public boolean isReady()
+    {
+        return index != null;
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.search.initial-delay-ms:0}"
+            , fixedDelayString = "${hmdp.search.rebuild-interval-ms:3600000}")
+    public void rebuild()
+    {
+        synchronized (this)
+        {
+            pendingDuringRebuild = new ConcurrentLinkedQueue<>();
+        }
+        try {
+            Index built = new Index();
+            long lastId = 0;
+            int count = 0;
+            while (true)
+            {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>().gt("id", lastId)
+                        .orderByAsc("id").last("limit " + chunkSize));
+                for (Shop shop : shops)
+                {
+                    built.add(shop);
+                    lastId = shop.getId();
+                }
+                count += shops.size();
+                if (shops.size() < chunkSize)
+                {
+                    break;
+                }
+            }
+            synchronized (this)
+            {
+                for (Object op : pendingDuringRebuild)
+                {
+                    apply(built, op);
+                }
+                index = built;
+            }
+            log.info("店铺搜索索引构建完成，店铺数量：{}", count);
+        } catch (Exception e) {
+            log.error("店铺搜索索引构建失败", e);
+        } finally {
+            synchronized (this)
+            {
+                pendingDuringRebuild = null;
+            }
+        }
+    }
+
+    /**
+     * 新增或修改店铺后调用，shop中为null的字段保留索引中原来的值
+     */
+    public void index(Shop shop)
+    {
+        if (shop == null || shop.getId() == null)
+        {
+            return;
+        }
+        // 复制一份，事务提交前调用方修改shop不影响索引
+        recordAfterCommit(BeanUtil.copyProperties(shop, Shop.class));
+    }
+
+    public void remove(Long id)
+    {
+        recordAfterCommit(id);
+    }
+
+    private void recordAfterCommit(Object op)
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter()
+            {
+                @Override
+                public void afterCommit()
+                {
+                    record(op);
+                }
+            });
+            return;
+        }
+        record(op);
+    }
+
+    private synchronized void record(Object op)
+    {
+        if (index != null)
+        {
+            apply(index, op);
+        }
+        if (pendingDuringRebuild != null)
+        {
+            pendingDuringRebuild.add(op);
+        }
+    }
+
+    private static void apply(Index index, Object op)
+    {
+        if (op instanceof Shop)
+        {
+            Shop shop = (Shop) op;
+            Shop old = index.docs.get(shop.getId());
+            Shop copy = old == null ? new Shop() : BeanUtil.copyProperties(old, Shop.class);
+            BeanUtil.copyProperties(shop, copy, CopyOptions.create().setIgnoreNullValue(true));
+            index.add(copy);
+        }
+        else
+        {
+            index.remove((Long) op);
+        }
+    }
+
+    /**
+     * 搜索名称或商圈包含关键字的店铺，按评分、销量排序后分页，关键字为空时返回全部店铺
+     * 页码乘以每页条数超过hmdp.search.max-result-window时返回空页
+     * @param current 页码，从1开始
+     */
+    public Page<Shop> search(String keyword, int current, int size)
+    {
+        current = Math.max(current, 1);
+        size = Math.max(size, 1);
+        Index idx = index;
+        Page<Shop> page = new Page<>(current, size, false);
+        if (idx == null || (long) current * size > maxResultWindow)
+        {
+            return page;
+        }
+        String query = normalize(keyword);
+        Collection<Long> candidates = query.isEmpty() ? idx.docs.keySet() : idx.candidates(query);
+        // 只保留前current * size个，不对全部结果排序
+        int k = current * size;
+        PriorityQueue<Shop> top = new PriorityQueue<>(Math.min(k, 1024), RANK.reversed());
+        long total = 0;
+        for (Long id : candidates)
+        {
+            Shop shop = idx.docs.get(id);
+            if (shop == null || !(query.isEmpty() || matches(shop, query)))
+            {
+                continue;
+            }
+            total++;
+            top.offer(shop);
+            if (top.size() > k)
+            {
+                top.poll();
+            }
+        }
+        List<Shop> ranked = new ArrayList<>(top);
+        ranked.sort(RANK);
+        int from = (current - 1) * size;
+        page.setRecords(from >= ranked.size() ? Collections.emptyList() : ranked.subList(from, ranked.size()));
+        page.setTotal(total);
+        return page;
+    }
+
+    /**
+     * 按评分、销量、id的顺序滚动查询，after为上一页最后一条数据的游标，第一页传null
+     * 只保留排在游标之后的前size个，每一页的开销都和第一页相同；返回结果中的总条数是匹配的店铺数
+     * @param after 上一页最后一条数据，只使用id、score和sold
+     */
+    public Page<Shop> scroll(String keyword, Shop after, int size)
+    {
+        size = Math.max(size, 1);
+        Index idx = index;
+        Page<Shop> page = new Page<>(1, size, false);
+        if (idx == null)
+        {
+            return page;
+        }
+        String query = normalize(keyword);
+        Collection<Long> candidates = query.isEmpty() ? idx.docs.keySet() : idx.candidates(query);
+        PriorityQueue<Shop> top = new PriorityQueue<>(size, RANK.reversed());
+        long total = 0;
+        for (Long id : candidates)
+        {
+            Shop shop = idx.docs.get(id);
+            if (shop == null || !(query.isEmpty() || matches(shop, query)))
+            {
+                continue;
+            }
+            total++;
+            if (after != null && RANK.compare(shop, after) <= 0)
+            {
+                continue;
+            }
+            top.offer(shop);
+            if (top.size() > size)
+            {
+                top.poll();
+            }
+        }
+        List<Shop> ranked = new ArrayList<>(top);
+        ranked.sort(RANK);
+        page.setRecords(ranked);
+        page.setTotal(total);
+        return page;
+    }
+
+    /**
+     * 搜索框的自动补全，名称以关键字开头的店铺排在前面，返回去重后的店铺名称
+     */
+    public List<String> suggest(String prefix, int size)
+    {
+        Index idx = index;
+        String query = normalize(prefix);
+        if (idx == null || query.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        List<Shop> prefixMatches = new ArrayList<>();
+        List<Shop> otherMatches = new ArrayList<>();
+        for (Long id : idx.candidates(query))
+        {
+            Shop shop = idx.docs.get(id);
+            if (shop == null || !matches(shop, query))
+            {
+                continue;
+            }
+            (normalize(shop.getName()).startsWith(query) ? prefixMatches : otherMatches).add(shop);
+        }
+        prefixMatches.sort(RANK);
+        otherMatches.sort(RANK);
+        Set<String> names = new LinkedHashSet<>();
+        for (List<Shop> shops : Arrays.asList(prefixMatches, otherMatches))
+        {
+            for (Shop shop : shops)
+            {
+                if (names.size() >= size)
+                {
+                    return new ArrayList<>(names);
+                }
+                names.add(shop.getName());
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    private static boolean matches(Shop shop, String query)
+    {
+        return normalize(shop.getName()).contains(query) || normalize(shop.getArea()).contains(query);
+    }
+
+    private static String normalize(String text)
+    {
+        return StrUtil.isBlank(text) ? "" : StrUtil.cleanBlank(text).toLowerCase();
+    }
+
+    /**
+     * 文本的词项：每个单字和每两个相邻的字
+     */
+    private static Set<String> tokens(String text)
+    {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (int i = 0; i < text.length(); i++)
+        {
+            tokens.add(text.substring(i, i + 1));
+            if (i + 1 < text.length())
+            {
+                tokens.add(text.substring(i, i + 2));
+            }
+        }
+        return tokens;
+    }
+
+    private static class Index
+    {
+        private final Map<Long, Shop> docs = new ConcurrentHashMap<>();
+
+        private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+
+        /**
+         * 加入或替换店铺：先加入新的词项，再替换店铺数据，最后删除不再包含的词项
+         * 替换过程中并发的搜索总能通过没有变化的词项找到该店铺
+         */
+        void add(Shop shop)
+        {
+            Long id = shop.getId();
+            Set<String> tokens = docTokens(shop);
+            for (String token : tokens)
+            {
+                postings.computeIfAbsent(token, t -> ConcurrentHashMap.newKeySet()).add(id);
+            }
+            Shop old = docs.put(id, shop);
+            if (old == null)
+            {
+                return;
+            }
+            for (String token : docTokens(old))
+            {
+                Set<Long> ids = postings.get(token);
+                if (ids != null && !tokens.contains(token))
+                {
+                    ids.remove(id);
+                }
+            }
+        }
+
+        void remove(Long id)
+        {
+            Shop old = docs.remove(id);
+            if (old == null)
+            {
+                return;
+            }
+            for (String token : docTokens(old))
+            {
+                Set<Long> ids = postings.get(token);
+                if (ids != null)
+                {
+                    ids.remove(id);
+                }
+            }
+        }
+
+        /**
+         * 包含关键字全部词项的店铺，还需要校验是否包含完整的关键字
+         * 单字的关键字用单字词项，更长的关键字用相邻两个字的词项
+         */
+        Collection<Long> candidates(String query)
+        {
+            List<Set<Long>> lists = new ArrayList<>();
+            if (query.length() == 1)
+            {
+                lists.add(postings.getOrDefault(query, Collections.emptySet()));
+            }
+            else
+            {
+                for (int i = 0; i + 1 < query.length(); i++)
+                {
+                    lists.add(postings.getOrDefault(query.substring(i, i + 2), Collections.emptySet()));
+                }
+            }
+            // 从最短的列表开始求交集
+            lists.sort(Comparator.comparingInt(Set::size));
+            Set<Long> smallest = lists.get(0);
+            if (lists.size() == 1)
+            {
+                return smallest;
+            }
+            List<Long> result = new ArrayList<>();
+            for (Long id : smallest)
+            {
+                boolean all = true;
+                for (int i = 1; i < lists.size() && all; i++)
+                {
+                    all = lists.get(i).contains(id);
+                }
+                if (all)
+                {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+
+        private static Set<String> docTokens(Shop shop)
+        {
+            Set<String> tokens = tokens(normalize(shop.getName()));
+            tokens.addAll(tokens(normalize(shop.getArea())));
+            return tokens;
+        }
+    }
+}
@@ -1,9 +1,7 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.lang.UUID;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
@@ -14,20 +12,15 @@ public class SimpleRedisLock implements ILock
 
     private String lockName;
 
+    /**
+     * 获取锁的时间，用于统计锁的持有时间
+     */
+    private long lockedAt;
+
     private static final String KEY_PREFIX = "lock:";
 
     private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
 
-    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT; // 用于Lua脚本加载
-
-    static {
-        UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        // 加载Lua脚本
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
-        // 设置Lua脚本返回值类型
-        UNLOCK_SCRIPT.setResultType(Long.class);
-    }
-
     public SimpleRedisLock(StringRedisTemplate stringRedisTemplate, String lockName)
     {
         this.stringRedisTemplate = stringRedisTemplate;
@@ -42,17 +35,28 @@ public class SimpleRedisLock implements ILock
         // 获取锁
         Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(KEY_PREFIX + lockName, threadId
                 , timeoutSec, TimeUnit.SECONDS);
-        return Boolean.TRUE.equals(success);
+        if (!Boolean.TRUE.equals(success))
+        {
+            HotPathMetrics.LOCK_ACQUIRE_FAIL.increment();
+            return false;
+        }
+        HotPathMetrics.LOCK_ACQUIRE_SUCCESS.increment();
+        lockedAt = System.nanoTime();
+        return true;
     }
 
     @Override
     public void unlock()
     {
         // 调用Lua脚本释放锁
-        stringRedisTemplate.execute(
-                UNLOCK_SCRIPT,
+        LuaScripts.UNLOCK.execute(stringRedisTemplate,
                 Collections.singletonList(KEY_PREFIX + lockName),
                 ID_PREFIX + Thread.currentThread().getId());
+        if (lockedAt != 0)
+        {
+            HotPathMetrics.LOCK_HOLD.record(System.nanoTime() - lockedAt, TimeUnit.NANOSECONDS);
+            lockedAt = 0;
+        }
     }
 
 //    @Override
@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地锁 + 分布式锁组成的锁，通过StripedLockFactory获取
+ * 本地锁与线程绑定，加锁和释放需要在同一个线程中进行
+ */
+public class StripedLock implements ILock
+{
+    private final StripedLockFactory factory;
+
+    private final String name;
+
+    StripedLock(StripedLockFactory factory, String name)
+    {
+        this.factory = factory;
+        this.name = name;
+    }
+
+    /**
+     * 尝试获取锁，本地锁被同名的锁占用时直接失败，不访问Redis
+     * @param timeoutSec 锁持有的时间，过期后自动释放
+     */
+    @Override
+    public boolean tryLock(long timeoutSec)
+    {
+        StripedLockFactory.Stripe stripe = factory.acquire(name);
+        if (!stripe.local.tryLock())
+        {
+            factory.release(name);
+            return false;
+        }
+        return acquireRemote(stripe, 0, timeoutSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 尝试获取锁，先在本地排队，拿到本地锁后再获取分布式锁
+     * @param waitTime 最长等待时间
+     * @param leaseTime 锁持有的时间，小于等于0表示由看门狗续期直到释放
+     */
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit)
+    {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        StripedLockFactory.Stripe stripe = factory.acquire(name);
+        try {
+            if (!stripe.local.tryLock(waitTime, unit))
+            {
+                factory.release(name);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            factory.release(name);
+            return false;
+        }
+        long remaining = Math.max(0, deadline - System.nanoTime());
+        return acquireRemote(stripe, remaining, leaseTime <= 0 ? leaseTime : unit.toNanos(leaseTime)
+                , TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void unlock()
+    {
+        StripedLockFactory.Stripe stripe = factory.get(name);
+        if (stripe == null || !stripe.local.isHeldByCurrentThread())
+        {
+            throw new IllegalMonitorStateException("未持有锁：" + name);
+        }
+        try {
+            if (stripe.local.getHoldCount() > 1)
+            {
+                // 本地重入，分布式锁仍然需要持有
+                return;
+            }
+            if (stripe.local.hasQueuedThreads() && stripe.handoffs < StripedLockFactory.MAX_HANDOFFS)
+            {
+                // 本地还有等待者，保留分布式锁交给下一个拿到本地锁的线程
+                stripe.handoffs++;
+                return;
+            }
+            releaseRemote(stripe);
+        } finally {
+            stripe.local.unlock();
+            factory.release(name);
+        }
+    }
+
+    /**
+     * 已持有本地锁，获取或者复用分布式锁，失败时释放本地锁
+     */
+    private boolean acquireRemote(StripedLockFactory.Stripe stripe, long waitTime, long leaseTime, TimeUnit unit)
+    {
+        if (stripe.local.getHoldCount() > 1)
+        {
+            // 本地锁按名称区分，重入时一定是同一把锁，分布式锁已经持有
+            return true;
+        }
+        boolean watchdog = leaseTime <= 0;
+        boolean success = false;
+        try {
+            if (stripe.remote != null && stripe.watchdog != watchdog)
+            {
+                // 交接过来的分布式锁续期方式不同，释放后按本次的方式重新获取
+                releaseRemote(stripe);
+            }
+            if (stripe.remote != null)
+            {
+                // 复用交接过来的分布式锁，重入一次再释放一次，刷新剩余的租期
+                success = stripe.remote.tryLock(0, leaseTime, unit);
+                if (success)
+                {
+                    stripe.remote.unlock();
+                    return true;
+                }
+                // 租期已过并且被其他节点获取
+                stripe.remote = null;
+                stripe.handoffs = 0;
+            }
+            RedisReentrantLock remote = factory.newRemoteLock(name);
+            success = remote.tryLock(waitTime, leaseTime, unit);
+            if (success)
+            {
+                stripe.remote = remote;
+                stripe.watchdog = watchdog;
+                stripe.handoffs = 0;
+            }
+            return success;
+        } finally {
+            if (!success)
+            {
+                stripe.local.unlock();
+                factory.release(name);
+            }
+        }
+    }
+
+    static void releaseRemote(StripedLockFactory.Stripe stripe)
+    {
+        RedisReentrantLock remote = stripe.remote;
+        stripe.remote = null;
+        stripe.handoffs = 0;
+        if (remote == null)
+        {
+            return;
+        }
+        try {
+            remote.unlock();
+        } catch (IllegalMonitorStateException e) {
+            // 租期已过，锁已经自动释放
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 在分布式锁之前加一层按锁名称区分的本地锁
+ * 同一节点上竞争同一把锁的线程先在本地排队，只有拿到本地锁的线程才会访问Redis，
+ * 释放时如果本地还有等待者，分布式锁直接交给下一个本地线程，不经过Redis的释放和重新竞争
+ * 本地锁按名称创建，不同名称之间互不影响；没有线程持有或者等待时移除，本地锁的数量不会随名称无限增长
+ */
+@Component
+public class StripedLockFactory
+{
+    /**
+     * 连续交接给本地线程的最大次数，超过后释放分布式锁，避免其他节点一直拿不到锁
+     */
+    static final int MAX_HANDOFFS = 8;
+
+    @Resource
+    private RedisLockFactory redisLockFactory;
+
+    private final Map<String, Stripe> stripes = new ConcurrentHashMap<>();
+
+    public StripedLock getLock(String name)
+    {
+        return new StripedLock(this, name);
+    }
+
+    RedisReentrantLock newRemoteLock(String name)
+    {
+        return redisLockFactory.getLock(name);
+    }
+
+    /**
+     * 本节点是否有线程持有或者等待该名称的锁，用于在提交异步任务之前跳过已经有线程在处理的名称
+     */
+    public boolean isLocked(String name)
+    {
+        return stripes.containsKey(name);
+    }
+
+    /**
+     * 获取名称对应的本地锁并增加引用，加锁失败或者解锁后需要调用release
+     */
+    Stripe acquire(String name)
+    {
+        return stripes.compute(name, (k, stripe) -> {
+            if (stripe == null)
+            {
+                stripe = new Stripe();
+            }
+            stripe.refs++;
+            return stripe;
+        });
+    }
+
+    /**
+     * 获取当前线程已经持有的本地锁，持有期间引用不为0，不会被移除
+     */
+    Stripe get(String name)
+    {
+        return stripes.get(name);
+    }
+
+    void release(String name)
+    {
+        Stripe[] removed = new Stripe[1];
+        stripes.computeIfPresent(name, (k, stripe) -> {
+            if (--stripe.refs > 0)
+            {
+                return stripe;
+            }
+            removed[0] = stripe;
+            return null;
+        });
+        // 交接时的等待者超时离开，没有线程再使用交接过来的分布式锁，直接释放
+        if (removed[0] != null && removed[0].remote != null)
+        {
+            StripedLock.releaseRemote(removed[0]);
+        }
+    }
+
+    /**
+     * 一把本地锁，记录当前由本节点持有的分布式锁
+     * 除本地锁和引用数之外的字段只在持有本地锁时读写
+     */
+    static class Stripe
+    {
+        final ReentrantLock local = new ReentrantLock();
+        RedisReentrantLock remote;
+        /**
+         * 分布式锁是否由看门狗续期
+         */
+        boolean watchdog;
+        int handoffs;
+        /**
+         * 持有和等待本地锁的次数，只在ConcurrentHashMap的compute中修改
+         */
+        int refs;
+    }
+}
@@ -0,0 +1,162 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 在线程之间传递UserHolder中的登录用户
+ * 提交任务时记录当前线程的用户，执行任务前设置到执行线程中，执行完成后恢复执行线程原来的用户，线程池中不会残留上一个任务的用户
+ */
+public final class UserContext
+{
+    private UserContext()
+    {
+    }
+
+    /**
+     * 当前线程的用户快照，没有登录用户时也可以使用
+     */
+    public static Snapshot capture()
+    {
+        return new Snapshot(UserHolder.getUser());
+    }
+
+    public static Runnable wrap(Runnable task)
+    {
+        Snapshot snapshot = capture();
+        return () -> {
+            try (Scope ignored = snapshot.attach())
+            {
+                task.run();
+            }
+        };
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task)
+    {
+        Snapshot snapshot = capture();
+        return () -> {
+            try (Scope ignored = snapshot.attach())
+            {
+                return task.call();
+            }
+        };
+    }
+
+    public static <T> Supplier<T> wrap(Supplier<T> task)
+    {
+        Snapshot snapshot = capture();
+        return () -> {
+            try (Scope ignored = snapshot.attach())
+            {
+                return task.get();
+            }
+        };
+    }
+
+    public static Executor wrap(Executor executor)
+    {
+        return task -> executor.execute(wrap(task));
+    }
+
+    /**
+     * 包装线程池，submit、invokeAll等方法最终都通过execute提交，因此都会传递用户
+     */
+    public static ExecutorService wrap(ExecutorService executor)
+    {
+        return new AbstractExecutorService()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                executor.execute(wrap(command));
+            }
+
+            @Override
+            public void shutdown()
+            {
+                executor.shutdown();
+            }
+
+            @Override
+            public List<Runnable> shutdownNow()
+            {
+                return executor.shutdownNow();
+            }
+
+            @Override
+            public boolean isShutdown()
+            {
+                return executor.isShutdown();
+            }
+
+            @Override
+            public boolean isTerminated()
+            {
+                return executor.isTerminated();
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+            {
+                return executor.awaitTermination(timeout, unit);
+            }
+        };
+    }
+
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> task, Executor executor)
+    {
+        return CompletableFuture.supplyAsync(wrap(task), executor);
+    }
+
+    public static final class Snapshot
+    {
+        private final UserDTO user;
+
+        private Snapshot(UserDTO user)
+        {
+            this.user = user;
+        }
+
+        public UserDTO getUser()
+        {
+            return user;
+        }
+
+        /**
+         * 把快照中的用户设置到当前线程，关闭返回的Scope时恢复当前线程原来的用户
+         */
+        public Scope attach()
+        {
+            UserDTO previous = UserHolder.getUser();
+            set(user);
+            return () -> set(previous);
+        }
+
+        private static void set(UserDTO user)
+        {
+            if (user == null)
+            {
+                UserHolder.removeUser();
+            }
+            else
+            {
+                UserHolder.saveUser(user);
+            }
+        }
+    }
+
+    public interface Scope extends AutoCloseable
+    {
+        @Override
+        void close();
+    }
+}
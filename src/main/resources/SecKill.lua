@@ -1,18 +1,38 @@
--- 1. 参数列表
--- 1.1 优惠卷id
-local voucherId = ARGV[1]
--- 1.2 用户id
-local userId = ARGV[2]
+-- 1. 数据Key，由RedisKeys.seckillKeys生成，使用相同的hash tag，在Redis Cluster中位于同一个槽位
+-- 1.1 库存Key
+local stockKey = KEYS[1]
+-- 1.2 订单Key
+local orderKey = KEYS[2]
+-- 1.3 秒杀时间Key
+local windowKey = KEYS[3]
 
--- 2. 数据Key
--- 2.1 库存Key
-local stockKey = 'seckill:stock:' .. voucherId -- 拼接key
--- 2.2 订单Key
-local orderKey = 'seckill:order:' .. voucherId
+-- 2. 参数列表
+-- 2.1 用户id
+local userId = ARGV[1]
+
+-- 脚本中读取了服务器时间，需要以命令的方式复制到从节点（Redis 7以后默认如此，兼容没有该函数的实现）
+if (redis.replicate_commands) then
+    redis.replicate_commands()
+end
 
 -- 3. 脚本业务
--- 3.1 判断库存是否充足get stockKey
-if (tonumber(redis.call('get', stockKey)) <= 0) then
+-- 3.0 判断秒杀是否开始或者结束 hmget windowKey begin end
+local window = redis.call('hmget', windowKey, 'begin', 'end')
+if (window[1] and window[2]) then
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1])) then
+        -- 秒杀尚未开始
+        return 3
+    end
+    if (now > tonumber(window[2])) then
+        -- 秒杀已经结束
+        return 4
+    end
+end
+-- 3.1 判断库存是否充足get stockKey，库存Key不存在时按库存不足处理
+local stock = tonumber(redis.call('get', stockKey))
+if (not stock or stock <= 0) then
     -- 3.2 库存不足
     return 1
 end
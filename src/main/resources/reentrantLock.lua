@@ -0,0 +1,8 @@
+-- 锁不存在或者由自己持有时重入次数加一并设置租期，否则返回锁的剩余时间
+-- KEYS[1] 锁，ARGV[1] 租期（毫秒），ARGV[2] 持有者
+if (redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[2]) == 1) then
+    redis.call('hincrby', KEYS[1], ARGV[2], 1)
+    redis.call('pexpire', KEYS[1], ARGV[1])
+    return nil
+end
+return redis.call('pttl', KEYS[1])
@@ -0,0 +1,7 @@
+-- 仍由自己持有时续期
+-- KEYS[1] 锁，ARGV[1] 租期（毫秒），ARGV[2] 持有者
+if (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then
+    redis.call('pexpire', KEYS[1], ARGV[1])
+    return 1
+end
+return 0
@@ -0,0 +1,12 @@
+-- 重入次数减一，减到0时删除锁并发布解锁通知；返回1表示锁已释放，0表示仍然持有，nil表示并未持有锁
+-- KEYS[1] 锁，ARGV[1] 解锁通知的频道，ARGV[2] 租期（毫秒），ARGV[3] 持有者
+if (redis.call('hexists', KEYS[1], ARGV[3]) == 0) then
+    return nil
+end
+if (redis.call('hincrby', KEYS[1], ARGV[3], -1) > 0) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 0
+end
+redis.call('del', KEYS[1])
+redis.call('publish', ARGV[1], 1)
+return 1
@@ -0,0 +1,30 @@
+-- 取出一批店铺在Redis中的增量，从待刷新集合中移除，并转移到处理中的Hash；数据库写入成功后再删除处理中的Hash
+-- 处理中的Hash还在时（上次写入数据库失败或者进程崩溃），不取出新的增量，直接返回上次的增量重新写入
+-- KEYS[1] 待刷新集合，KEYS[2] 处理中的增量，KEYS[i + 2] 为ARGV[i]对应店铺的计数器，所有Key在同一个槽位，见RedisKeys
+-- 返回 [id, sold, comments, score, id, sold, ...]
+local result = {}
+local inflight = redis.call('hgetall', KEYS[2])
+if #inflight > 0 then
+    for i = 1, #inflight, 2 do
+        table.insert(result, inflight[i])
+        for value in string.gmatch(inflight[i + 1], '[^,]+') do
+            table.insert(result, value)
+        end
+    end
+    return result
+end
+for i = 3, #KEYS do
+    local id = ARGV[i - 2]
+    local values = redis.call('hmget', KEYS[i], 'sold', 'comments', 'score')
+    redis.call('del', KEYS[i])
+    redis.call('srem', KEYS[1], id)
+    for j = 1, 3 do
+        values[j] = values[j] or '0'
+    end
+    redis.call('hset', KEYS[2], id, values[1] .. ',' .. values[2] .. ',' .. values[3])
+    table.insert(result, id)
+    for j = 1, 3 do
+        table.insert(result, values[j])
+    end
+end
+return result
@@ -0,0 +1,12 @@
+-- 把单节点时期一个店铺的旧计数器增量合并到新的计数器中，合并、记录待刷新和删除旧Key在一个脚本中完成，中途崩溃不会重复累加
+-- 只在单节点Redis上执行，Key不需要位于同一个槽位
+-- KEYS[1] 旧的待刷新集合，KEYS[2] 旧的计数器，KEYS[3] 新的计数器，KEYS[4] 新的分桶待刷新集合，ARGV[1] 店铺id
+-- 返回合并的字段数
+local values = redis.call('hgetall', KEYS[2])
+for i = 1, #values, 2 do
+    redis.call('hincrby', KEYS[3], values[i], values[i + 1])
+end
+redis.call('sadd', KEYS[4], ARGV[1])
+redis.call('del', KEYS[2])
+redis.call('srem', KEYS[1], ARGV[1])
+return #values / 2
@@ -0,0 +1,111 @@
+package com.hmdp.perf.bench;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.perf.support.PerfEnvironment;
+import com.hmdp.utils.CacheClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheClient的命中、空值命中、未命中重建以及逻辑过期的读取路径
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheClientBenchmark
+{
+    private static final String KEY_PREFIX = "bench:shop:";
+
+    private static final String LOGICAL_KEY_PREFIX = "bench:logical:shop:";
+
+    private static final String LOCK_PREFIX = "bench:lock:shop:";
+
+    private static final Long HIT_ID = 1L;
+
+    private static final Long MISS_ID = 2L;
+
+    private static final Long STALE_ID = 3L;
+
+    private static final Long NOT_EXIST_ID = 404L;
+
+    private PerfEnvironment env;
+
+    private CacheClient cacheClient;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        env = PerfEnvironment.start();
+        cacheClient = env.inject(new CacheClient());
+        cacheClient.setWithExpireTime(KEY_PREFIX + HIT_ID, env.queryShop(HIT_ID), 30L, TimeUnit.MINUTES);
+        // 空值缓存
+        env.getStringRedisTemplate().opsForValue().set(KEY_PREFIX + NOT_EXIST_ID, "", 30L, TimeUnit.MINUTES);
+        cacheClient.setWithLogicalExpireTime(LOGICAL_KEY_PREFIX + HIT_ID, env.queryShop(HIT_ID), 30L, TimeUnit.MINUTES);
+        // 逻辑过期时间为当前时间，每次读取都是过期数据并触发重建
+        cacheClient.setWithLogicalExpireTime(LOGICAL_KEY_PREFIX + STALE_ID, env.queryShop(STALE_ID), 0L, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        env.close();
+    }
+
+    @Benchmark
+    public Shop hit()
+    {
+        return cacheClient.queryWithPassThrough(KEY_PREFIX, HIT_ID, Shop.class, env::queryShop
+                , 30L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop nullHit()
+    {
+        return cacheClient.queryWithPassThrough(KEY_PREFIX, NOT_EXIST_ID, Shop.class, env::queryShop
+                , 30L, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 每次先删除缓存再查询，包含一次DEL、一次数据库查询和一次回写
+     */
+    @Benchmark
+    public Shop miss()
+    {
+        env.getStringRedisTemplate().delete(KEY_PREFIX + MISS_ID);
+        return cacheClient.queryWithPassThrough(KEY_PREFIX, MISS_ID, Shop.class, env::queryShop
+                , 30L, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop logicalExpireFresh()
+    {
+        return cacheClient.queryWithLogicalExpire(LOGICAL_KEY_PREFIX, HIT_ID, Shop.class, env::queryShop
+                , LOCK_PREFIX, 30L, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 返回过期数据，同时竞争重建锁并提交异步重建
+     */
+    @Benchmark
+    public Shop logicalExpireStale()
+    {
+        return cacheClient.queryWithLogicalExpire(LOGICAL_KEY_PREFIX, STALE_ID, Shop.class, env::queryShop
+                , LOCK_PREFIX, 0L, TimeUnit.SECONDS);
+    }
+}
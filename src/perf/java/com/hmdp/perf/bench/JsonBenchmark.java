@@ -0,0 +1,75 @@
+package com.hmdp.perf.bench;
+
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import com.hmdp.perf.support.PerfEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shop的JSON编解码：CacheClient使用的hutool，以及接口响应使用的Jackson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark
+{
+    private Shop shop;
+
+    private String shopJson;
+
+    private Result result;
+
+    /**
+     * 与Spring Boot自动配置的ObjectMapper保持一致
+     */
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        try (PerfEnvironment env = PerfEnvironment.start())
+        {
+            shop = env.queryShop(1L);
+        }
+        shopJson = JSONUtil.toJsonStr(shop);
+        result = Result.ok(shop);
+    }
+
+    @Benchmark
+    public String hutoolEncode()
+    {
+        return JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public Shop hutoolDecode()
+    {
+        return JSONUtil.toBean(shopJson, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] jacksonEncodeResult() throws JsonProcessingException
+    {
+        return objectMapper.writeValueAsBytes(result);
+    }
+}
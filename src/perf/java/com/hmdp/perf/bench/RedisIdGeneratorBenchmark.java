@@ -0,0 +1,62 @@
+package com.hmdp.perf.bench;
+
+import com.hmdp.perf.support.PerfEnvironment;
+import com.hmdp.utils.RedisIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdGenerator的吞吐量，单线程与多线程竞争同一个自增Key
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisIdGeneratorBenchmark
+{
+    private PerfEnvironment env;
+
+    private RedisIdGenerator redisIdGenerator;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        env = PerfEnvironment.start();
+        redisIdGenerator = env.inject(new RedisIdGenerator());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        env.close();
+    }
+
+    @Benchmark
+    public long nextId()
+    {
+        return redisIdGenerator.nextId("order");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long nextIdContended()
+    {
+        return redisIdGenerator.nextId("order");
+    }
+}
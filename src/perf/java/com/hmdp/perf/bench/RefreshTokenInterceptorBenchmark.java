@@ -0,0 +1,85 @@
+package com.hmdp.perf.bench;
+
+import com.hmdp.perf.support.PerfEnvironment;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RefreshTokenInterceptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RefreshTokenInterceptor每个请求的开销：读取用户Hash、刷新有效期、清理UserHolder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RefreshTokenInterceptorBenchmark
+{
+    private static final String TOKEN = "bench-token";
+
+    private PerfEnvironment env;
+
+    private RefreshTokenInterceptor interceptor;
+
+    private MockHttpServletRequest loggedInRequest;
+
+    private MockHttpServletRequest anonymousRequest;
+
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        env = PerfEnvironment.start();
+        interceptor = new RefreshTokenInterceptor(env.getStringRedisTemplate());
+        Map<String, String> user = new HashMap<>();
+        user.put("id", "1");
+        user.put("nickName", "user_bench");
+        user.put("icon", "");
+        env.getStringRedisTemplate().opsForHash().putAll(RedisConstants.LOGIN_USER_KEY + TOKEN, user);
+        loggedInRequest = new MockHttpServletRequest("GET", "/blog/of/me");
+        loggedInRequest.addHeader("authorization", TOKEN);
+        anonymousRequest = new MockHttpServletRequest("GET", "/shop/1");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        env.close();
+    }
+
+    @Benchmark
+    public boolean loggedIn() throws Exception
+    {
+        boolean result = interceptor.preHandle(loggedInRequest, response, null);
+        interceptor.afterCompletion(loggedInRequest, response, null, null);
+        return result;
+    }
+
+    @Benchmark
+    public boolean anonymous() throws Exception
+    {
+        boolean result = interceptor.preHandle(anonymousRequest, response, null);
+        interceptor.afterCompletion(anonymousRequest, response, null, null);
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package com.hmdp.perf.bench;
+
+import com.hmdp.perf.support.PerfEnvironment;
+import com.hmdp.utils.LuaScripts;
+import com.hmdp.utils.RedisKeys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SecKill.lua的三条路径：下单成功、重复下单、库存不足
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeckillScriptBenchmark
+{
+    private static final String AVAILABLE_VOUCHER = "1";
+
+    private static final String SOLD_OUT_VOUCHER = "2";
+
+    private static final String REPEAT_USER = "1";
+
+    private final AtomicLong userSeq = new AtomicLong(1);
+
+    private PerfEnvironment env;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        env = PerfEnvironment.start();
+        stringRedisTemplate = env.getStringRedisTemplate();
+        stringRedisTemplate.opsForValue().set(RedisKeys.seckillStock(Long.valueOf(AVAILABLE_VOUCHER))
+                , String.valueOf(Integer.MAX_VALUE));
+        stringRedisTemplate.opsForValue().set(RedisKeys.seckillStock(Long.valueOf(SOLD_OUT_VOUCHER)), "0");
+        // 第一次下单成功，之后同一用户都是重复下单
+        execute(AVAILABLE_VOUCHER, REPEAT_USER);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        env.close();
+    }
+
+    @Benchmark
+    public Long success()
+    {
+        return execute(AVAILABLE_VOUCHER, String.valueOf(userSeq.incrementAndGet()));
+    }
+
+    @Benchmark
+    public Long repeatOrder()
+    {
+        return execute(AVAILABLE_VOUCHER, REPEAT_USER);
+    }
+
+    @Benchmark
+    public Long soldOut()
+    {
+        return execute(SOLD_OUT_VOUCHER, REPEAT_USER);
+    }
+
+    private Long execute(String voucherId, String userId)
+    {
+        return LuaScripts.SECKILL.execute(stringRedisTemplate, RedisKeys.seckillKeys(Long.valueOf(voucherId)), userId);
+    }
+}
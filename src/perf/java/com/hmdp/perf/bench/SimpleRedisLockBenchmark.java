@@ -0,0 +1,87 @@
+package com.hmdp.perf.bench;
+
+import com.hmdp.perf.support.PerfEnvironment;
+import com.hmdp.utils.SimpleRedisLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SimpleRedisLock加锁+释放一次的耗时，无竞争（每个线程一把锁）与竞争同一把锁
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimpleRedisLockBenchmark
+{
+    private PerfEnvironment env;
+
+    private SimpleRedisLock sharedLock;
+
+    @State(Scope.Thread)
+    public static class ThreadLock
+    {
+        private static final AtomicInteger SEQ = new AtomicInteger();
+
+        private SimpleRedisLock lock;
+
+        @Setup(Level.Trial)
+        public void setup(SimpleRedisLockBenchmark benchmark)
+        {
+            lock = new SimpleRedisLock(benchmark.env.getStringRedisTemplate(), "bench:" + SEQ.incrementAndGet());
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        env = PerfEnvironment.start();
+        sharedLock = new SimpleRedisLock(env.getStringRedisTemplate(), "bench:shared");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        env.close();
+    }
+
+    @Benchmark
+    public boolean uncontended(ThreadLock threadLock)
+    {
+        boolean success = threadLock.lock.tryLock(10);
+        threadLock.lock.unlock();
+        return success;
+    }
+
+    /**
+     * 获取失败的线程不释放锁，结果中包含失败的尝试
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean contended()
+    {
+        boolean success = sharedLock.tryLock(10);
+        if (success)
+        {
+            sharedLock.unlock();
+        }
+        return success;
+    }
+}
@@ -0,0 +1,302 @@
+package com.hmdp.perf.loadtest;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.perf.support.PerfApplication;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisKeys;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 秒杀端到端压测：通过接口创建秒杀券，多个模拟用户并发抢购，最后校验没有超卖也没有重复下单
+ * 参数（均可选）：
+ * -users 用户数，-stock 库存，-concurrency 并发线程数，-attempts 每个用户的请求次数，
+ * -persistWait 等待订单落库的秒数，-expectPersisted 是否要求订单全部落库
+ */
+public class SeckillLoadTest
+{
+    private static final int SHOP_ID = 1;
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = parseOptions(args);
+        int users = Integer.parseInt(options.getOrDefault("users", "1000"));
+        int stock = Integer.parseInt(options.getOrDefault("stock", "100"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "64"));
+        int attempts = Integer.parseInt(options.getOrDefault("attempts", "2"));
+        int persistWait = Integer.parseInt(options.getOrDefault("persistWait", "10"));
+        boolean expectPersisted = Boolean.parseBoolean(options.getOrDefault("expectPersisted", "false"));
+
+        int exitCode;
+        try (PerfApplication app = PerfApplication.start())
+        {
+            StringRedisTemplate stringRedisTemplate = app.getEnv().getStringRedisTemplate();
+            long voucherId = createSeckillVoucher(app.baseUrl(), stock);
+            List<String> tokens = createUsers(stringRedisTemplate, users);
+
+            ConcurrentHistogram histogram = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+            Map<Long, AtomicInteger> successByUser = new ConcurrentHashMap<>();
+            AtomicInteger failures = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+            String seckillUrl = app.baseUrl() + "/voucher-order/seckill/" + voucherId;
+            long begin = System.nanoTime();
+            for (int attempt = 0; attempt < attempts; attempt++)
+            {
+                for (int i = 0; i < users; i++)
+                {
+                    long userId = i + 1;
+                    String token = tokens.get(i);
+                    executor.execute(() -> {
+                        long start = System.nanoTime();
+                        try {
+                            JSONObject result = JSONUtil.parseObj(post(seckillUrl, token, null));
+                            if (Boolean.TRUE.equals(result.getBool("success")))
+                            {
+                                successByUser.computeIfAbsent(userId, k -> new AtomicInteger()).incrementAndGet();
+                            }
+                            else
+                            {
+                                failures.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        } finally {
+                            histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                        }
+                    });
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.MINUTES);
+            long elapsedNanos = System.nanoTime() - begin;
+
+            report(histogram, users * attempts, elapsedNanos, successByUser.size(), failures.get(), errors.get());
+            List<String> violations = verify(app, voucherId, stock, successByUser, persistWait, expectPersisted);
+            if (violations.isEmpty())
+            {
+                System.out.println("校验通过：没有超卖，没有重复下单");
+                exitCode = 0;
+            }
+            else
+            {
+                violations.forEach(v -> System.out.println("校验失败：" + v));
+                exitCode = 1;
+            }
+        }
+        System.exit(exitCode);
+    }
+
+    private static long createSeckillVoucher(String baseUrl, int stock) throws IOException
+    {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Object> voucher = new HashMap<>();
+        voucher.put("shopId", SHOP_ID);
+        voucher.put("title", "压测秒杀券");
+        voucher.put("subTitle", "load test");
+        voucher.put("rules", "load test");
+        voucher.put("payValue", 100);
+        voucher.put("actualValue", 1000);
+        voucher.put("type", 1);
+        voucher.put("stock", stock);
+        voucher.put("beginTime", now.minusMinutes(1).withNano(0).toString());
+        voucher.put("endTime", now.plusHours(1).withNano(0).toString());
+        JSONObject result = JSONUtil.parseObj(post(baseUrl + "/voucher/seckill", null, JSONUtil.toJsonStr(voucher)));
+        if (!Boolean.TRUE.equals(result.getBool("success")))
+        {
+            throw new IllegalStateException("创建秒杀券失败：" + result);
+        }
+        return result.getLong("data");
+    }
+
+    /**
+     * 直接在Redis中写入登录信息，模拟已经登录的用户，用户id从1开始
+     */
+    private static List<String> createUsers(StringRedisTemplate stringRedisTemplate, int users)
+    {
+        List<String> tokens = new ArrayList<>(users);
+        for (int i = 1; i <= users; i++)
+        {
+            String token = "load-test-" + i;
+            Map<String, String> user = new HashMap<>();
+            user.put("id", String.valueOf(i));
+            user.put("nickName", "user_" + i);
+            user.put("icon", "");
+            stringRedisTemplate.opsForHash().putAll(RedisConstants.LOGIN_USER_KEY + token, user);
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static List<String> verify(PerfApplication app, long voucherId, int stock
+            , Map<Long, AtomicInteger> successByUser, int persistWait, boolean expectPersisted)
+            throws InterruptedException
+    {
+        List<String> violations = new ArrayList<>();
+        StringRedisTemplate stringRedisTemplate = app.getEnv().getStringRedisTemplate();
+        JdbcTemplate jdbcTemplate = app.getEnv().getJdbcTemplate();
+
+        int redisStock = Integer.parseInt(stringRedisTemplate.opsForValue()
+                .get(RedisKeys.seckillStock(voucherId)));
+        Set<String> orderUsers = stringRedisTemplate.opsForSet().members(RedisKeys.seckillOrder(voucherId));
+        int ordered = orderUsers == null ? 0 : orderUsers.size();
+        System.out.printf("Redis库存：%d，Redis订单用户数：%d，成功响应用户数：%d%n", redisStock, ordered, successByUser.size());
+
+        if (redisStock < 0)
+        {
+            violations.add("Redis库存为负数：" + redisStock);
+        }
+        if (ordered > stock)
+        {
+            violations.add("超卖：下单用户数" + ordered + "大于库存" + stock);
+        }
+        if (stock - redisStock != ordered)
+        {
+            violations.add("Redis扣减的库存" + (stock - redisStock) + "与订单用户数" + ordered + "不一致");
+        }
+        if (successByUser.size() != ordered)
+        {
+            violations.add("成功响应的用户数" + successByUser.size() + "与订单用户数" + ordered + "不一致");
+        }
+        successByUser.forEach((userId, count) -> {
+            if (count.get() > 1)
+            {
+                violations.add("用户" + userId + "成功下单" + count.get() + "次");
+            }
+            if (orderUsers == null || !orderUsers.contains(String.valueOf(userId)))
+            {
+                violations.add("用户" + userId + "下单成功但不在Redis订单集合中");
+            }
+        });
+
+        // 等待异步落库
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(persistWait);
+        int rows = countOrders(jdbcTemplate, voucherId);
+        while (rows < ordered && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(200);
+            rows = countOrders(jdbcTemplate, voucherId);
+        }
+        Integer dbStock = jdbcTemplate.queryForObject(
+                "SELECT stock FROM tb_seckill_voucher WHERE voucher_id = ?", Integer.class, voucherId);
+        List<Long> duplicated = jdbcTemplate.queryForList("SELECT user_id FROM tb_voucher_order WHERE voucher_id = ? "
+                + "GROUP BY user_id HAVING COUNT(*) > 1", Long.class, voucherId);
+        List<Long> dbUsers = jdbcTemplate.queryForList(
+                "SELECT user_id FROM tb_voucher_order WHERE voucher_id = ?", Long.class, voucherId);
+        System.out.printf("数据库订单数：%d，数据库库存：%d%n", rows, dbStock);
+
+        if (!duplicated.isEmpty())
+        {
+            violations.add("数据库中重复下单的用户：" + duplicated);
+        }
+        if (rows > ordered)
+        {
+            violations.add("数据库订单数" + rows + "大于Redis订单用户数" + ordered);
+        }
+        for (Long userId : dbUsers)
+        {
+            if (orderUsers == null || !orderUsers.contains(String.valueOf(userId)))
+            {
+                violations.add("数据库订单的用户" + userId + "不在Redis订单集合中");
+            }
+        }
+        if (dbStock == null || dbStock + rows != stock)
+        {
+            violations.add("数据库库存" + dbStock + "与订单数" + rows + "之和不等于初始库存" + stock);
+        }
+        if (rows < ordered)
+        {
+            String message = "还有" + (ordered - rows) + "个订单未落库";
+            if (expectPersisted)
+            {
+                violations.add(message);
+            }
+            else
+            {
+                System.out.println("提示：" + message);
+            }
+        }
+        return violations;
+    }
+
+    private static int countOrders(JdbcTemplate jdbcTemplate, long voucherId)
+    {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM tb_voucher_order WHERE voucher_id = ?", Integer.class, voucherId);
+        return count == null ? 0 : count;
+    }
+
+    private static void report(Histogram histogram, int requests, long elapsedNanos, int successes
+            , int failures, int errors)
+    {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        System.out.printf("请求数：%d，耗时：%.2fs，吞吐量：%.1f req/s%n", requests, seconds, requests / seconds);
+        System.out.printf("成功：%d，业务失败：%d，请求异常：%d%n", successes, failures, errors);
+        System.out.printf("延迟(us) p50=%d p90=%d p99=%d p99.9=%d max=%d%n"
+                , histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90)
+                , histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9)
+                , histogram.getMaxValue());
+    }
+
+    private static String post(String url, String token, String body) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        if (token != null)
+        {
+            connection.setRequestProperty("authorization", token);
+        }
+        if (body != null)
+        {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream())
+            {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK)
+        {
+            throw new IOException("HTTP " + status);
+        }
+        try (InputStream in = connection.getInputStream())
+        {
+            return IoUtil.read(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args)
+    {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+        }
+        return options;
+    }
+}
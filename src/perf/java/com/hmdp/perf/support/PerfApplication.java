@@ -0,0 +1,98 @@
+package com.hmdp.perf.support;
+
+import com.hmdp.HmDianPingApplication;
+import org.mockito.Mockito;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 在PerfEnvironment之上启动完整的应用，监听随机端口
+ * RedissonClient替换为Mock，其余组件与生产一致
+ */
+public class PerfApplication implements AutoCloseable
+{
+    private final PerfEnvironment env;
+
+    private final ConfigurableApplicationContext context;
+
+    private PerfApplication(PerfEnvironment env, ConfigurableApplicationContext context)
+    {
+        this.env = env;
+        this.context = context;
+    }
+
+    public static PerfApplication start(String... args) throws IOException
+    {
+        PerfEnvironment env = PerfEnvironment.start();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("server.port", 0);
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.url", env.getDataSource().getUrl());
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.redis.host", env.getRedisHost());
+        properties.put("spring.redis.port", env.getRedisPort());
+        properties.put("logging.level.com.hmdp", "warn");
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(HmDianPingApplication.class)
+                .properties(properties)
+                .initializers(ctx -> ctx.addBeanFactoryPostProcessor(new MockRedissonPostProcessor()))
+                .run(args);
+        return new PerfApplication(env, context);
+    }
+
+    public String baseUrl()
+    {
+        return "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    public PerfEnvironment getEnv()
+    {
+        return env;
+    }
+
+    public ConfigurableApplicationContext getContext()
+    {
+        return context;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        context.close();
+        env.close();
+    }
+
+    /**
+     * 在所有配置类解析完成后，把redissonClient替换为Mock，避免连接配置中写死的Redis地址
+     */
+    private static class MockRedissonPostProcessor implements BeanDefinitionRegistryPostProcessor
+    {
+        @Override
+        public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry)
+        {
+        }
+
+        @Override
+        public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory)
+        {
+            BeanDefinitionRegistry registry = (BeanDefinitionRegistry) beanFactory;
+            if (registry.containsBeanDefinition("redissonClient"))
+            {
+                registry.removeBeanDefinition("redissonClient");
+            }
+            registry.registerBeanDefinition("redissonClient", BeanDefinitionBuilder
+                    .genericBeanDefinition(RedissonClient.class, () -> Mockito.mock(RedissonClient.class))
+                    .getBeanDefinition());
+        }
+    }
+}
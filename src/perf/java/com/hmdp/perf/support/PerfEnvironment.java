@@ -0,0 +1,116 @@
+package com.hmdp.perf.support;
+
+import com.github.fppt.jedismock.RedisServer;
+import com.hmdp.entity.Shop;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 性能测试的本地环境：进程内的Redis替身(jedis-mock) + H2(MySQL模式)
+ * 不启动Spring容器，被测组件直接new出来后通过inject注入StringRedisTemplate
+ */
+public class PerfEnvironment implements AutoCloseable
+{
+    private static final AtomicInteger DB_SEQ = new AtomicInteger();
+
+    private final RedisServer redisServer;
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final DriverManagerDataSource dataSource;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private PerfEnvironment(RedisServer redisServer, LettuceConnectionFactory connectionFactory
+            , DriverManagerDataSource dataSource)
+    {
+        this.redisServer = redisServer;
+        this.connectionFactory = connectionFactory;
+        this.stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    public static PerfEnvironment start() throws IOException
+    {
+        // 随机端口启动Redis替身
+        RedisServer redisServer = RedisServer.newRedisServer();
+        redisServer.start();
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(redisServer.getHost(), redisServer.getBindPort()));
+        connectionFactory.afterPropertiesSet();
+        // 每个环境使用独立的内存数据库
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(jdbcUrl("perf" + DB_SEQ.incrementAndGet()));
+        new ResourceDatabasePopulator(new ClassPathResource("perf-schema.sql")).execute(dataSource);
+        return new PerfEnvironment(redisServer, connectionFactory, dataSource);
+    }
+
+    public static String jdbcUrl(String name)
+    {
+        return "jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * 为通过@Resource注入StringRedisTemplate的组件注入Redis替身的连接
+     */
+    public <T> T inject(T target)
+    {
+        ReflectionTestUtils.setField(target, "stringRedisTemplate", stringRedisTemplate);
+        return target;
+    }
+
+    /**
+     * 模拟ShopServiceImpl的getById，作为缓存未命中时的数据库查询
+     */
+    public Shop queryShop(Long id)
+    {
+        List<Shop> shops = jdbcTemplate.query("SELECT * FROM tb_shop WHERE id = ?"
+                , new BeanPropertyRowMapper<>(Shop.class), id);
+        return shops.isEmpty() ? null : shops.get(0);
+    }
+
+    public String getRedisHost()
+    {
+        return redisServer.getHost();
+    }
+
+    public int getRedisPort()
+    {
+        return redisServer.getBindPort();
+    }
+
+    public StringRedisTemplate getStringRedisTemplate()
+    {
+        return stringRedisTemplate;
+    }
+
+    public JdbcTemplate getJdbcTemplate()
+    {
+        return jdbcTemplate;
+    }
+
+    public DriverManagerDataSource getDataSource()
+    {
+        return dataSource;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+}
@@ -0,0 +1,90 @@
+-- 性能测试使用的H2(MySQL模式)表结构，与db/hmdp.sql中的表保持一致，去掉了H2不支持的表选项
+DROP TABLE IF EXISTS tb_shop;
+CREATE TABLE tb_shop (
+  id bigint NOT NULL AUTO_INCREMENT,
+  name varchar(128) NOT NULL,
+  type_id bigint NOT NULL,
+  images varchar(1024) NOT NULL,
+  area varchar(128) NULL,
+  address varchar(255) NOT NULL,
+  x double NOT NULL,
+  y double NOT NULL,
+  avg_price bigint NULL,
+  sold int NOT NULL,
+  comments int NOT NULL,
+  score int NOT NULL,
+  open_hours varchar(32) NULL,
+  create_time timestamp NULL DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+CREATE INDEX foreign_key_type ON tb_shop (type_id);
+CREATE INDEX idx_type_score ON tb_shop (type_id, score, id);
+
+DROP TABLE IF EXISTS tb_user;
+CREATE TABLE tb_user (
+  id bigint NOT NULL AUTO_INCREMENT,
+  phone varchar(11) NOT NULL,
+  password varchar(128) NULL DEFAULT '',
+  nick_name varchar(32) NULL DEFAULT '',
+  icon varchar(255) NULL DEFAULT '',
+  create_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id),
+  UNIQUE (phone)
+);
+
+DROP TABLE IF EXISTS tb_voucher;
+CREATE TABLE tb_voucher (
+  id bigint NOT NULL AUTO_INCREMENT,
+  shop_id bigint NULL,
+  title varchar(255) NOT NULL,
+  sub_title varchar(255) NULL,
+  rules varchar(1024) NULL,
+  pay_value bigint NOT NULL,
+  actual_value bigint NOT NULL,
+  type tinyint NOT NULL DEFAULT 0,
+  status tinyint NOT NULL DEFAULT 1,
+  create_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+
+DROP TABLE IF EXISTS tb_seckill_voucher;
+CREATE TABLE tb_seckill_voucher (
+  voucher_id bigint NOT NULL,
+  stock int NOT NULL,
+  create_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  begin_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  end_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  update_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (voucher_id)
+);
+
+DROP TABLE IF EXISTS tb_voucher_order;
+CREATE TABLE tb_voucher_order (
+  id bigint NOT NULL,
+  user_id bigint NOT NULL,
+  voucher_id bigint NOT NULL,
+  pay_type tinyint NOT NULL DEFAULT 1,
+  status tinyint NOT NULL DEFAULT 1,
+  create_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  pay_time timestamp NULL DEFAULT NULL,
+  use_time timestamp NULL DEFAULT NULL,
+  refund_time timestamp NULL DEFAULT NULL,
+  update_time timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id)
+);
+
+CREATE UNIQUE INDEX uk_user_voucher ON tb_voucher_order (user_id, voucher_id);
+
+INSERT INTO tb_shop (id, name, type_id, images, area, address, x, y, avg_price, sold, comments, score, open_hours) VALUES
+(1, '103茶餐厅', 1, 'https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg', '大关', '金华路锦昌文华苑29号', 120.149192, 30.316078, 80, 4215, 3035, 37, '10:00-22:00'),
+(2, '蔡馬洪涛烤肉·老北京铜锅涮羊肉', 1, 'https://p0.meituan.net/bbia/c1870d570e73accbc9fee90b48faca41195272.jpg', '拱宸桥/上塘', '上塘路1035号（中国工商银行旁）', 120.151505, 30.333422, 85, 2160, 1460, 46, '11:30-03:00'),
+(3, '新白鹿餐厅(运河上街店)', 1, 'https://p0.meituan.net/biztone/694233_1619500156517.jpeg', '运河上街', '台州路2号运河上街购物中心F5', 120.151954, 30.32497, 61, 12035, 8045, 47, '10:30-21:00'),
+(4, 'Mamala(杭州远洋乐堤港店)', 1, 'https://img.meituan.net/msmerchant/232f8fdf09050838bd33fb24e79f30f9606056.jpg', '拱宸桥/上塘', '丽水路66号远洋乐堤港商城2期1层B115号', 120.146659, 30.312742, 290, 13519, 9529, 49, '11:00-22:00'),
+(5, '海底捞火锅(水晶城购物中心店）', 1, 'https://img.meituan.net/msmerchant/054b5de0ba0b50c18a620cc37482129a45739.jpg', '大关', '上塘路458号水晶城购物中心F6', 120.15778, 30.310633, 104, 4125, 2764, 49, '10:00-07:00'),
+(10, '开乐迪KTV（运河上街店）', 2, 'https://p0.meituan.net/joymerchant/a575fd4adb0b9099c5c410058148b307-674435191.jpg', '运河上街', '台州路2号运河上街购物中心F4', 120.149093, 30.324666, 67, 26891, 902, 37, '00:00-24:00');
+
+INSERT INTO tb_voucher (id, shop_id, title, sub_title, rules, pay_value, actual_value, type, status) VALUES
+(1, 1, '50元代金券', '周一至周日均可使用', '全场通用', 4750, 5000, 0, 1);
@@ -27,19 +27,22 @@ class HmDianPingApplicationTests {
         shopService.saveShopToRedis(1L, 10L);
     }
 
+    /**
+     * 只用于确认并发生成ID正常，吞吐量以src/perf下的RedisIdGeneratorBenchmark为准
+     */
     @Test
     void testIdWork() throws InterruptedException {
-        CountDownLatch countDownLatch = new CountDownLatch(1);
+        int tasks = 300;
+        CountDownLatch countDownLatch = new CountDownLatch(tasks);
         Runnable task = () -> {
           for (int i = 0; i < 100; i++)
           {
-              long id = redisIdGenerator.nextId("order");
-              System.out.println("id: " + id);
+              redisIdGenerator.nextId("order");
           }
           countDownLatch.countDown();
         };
         long begin = System.currentTimeMillis();
-        for (int i = 0; i < 300; i++)
+        for (int i = 0; i < tasks; i++)
         {
             executorService.submit(task);
         }
@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 校验Lua脚本中一起访问的Key在Redis Cluster中位于同一个槽位
+ */
+class RedisKeysTest {
+
+    @Test
+    void seckillKeysShareSlot() {
+        for (long voucherId = 1; voucherId <= 1000; voucherId++) {
+            List<String> keys = RedisKeys.seckillKeys(voucherId);
+            int slot = SlotHash.getSlot(keys.get(0));
+            for (String key : keys) {
+                assertEquals(slot, SlotHash.getSlot(key), key);
+            }
+        }
+    }
+
+    @Test
+    void seckillKeysSpreadAcrossSlots() {
+        Set<Integer> slots = new HashSet<>();
+        for (long voucherId = 1; voucherId <= 1000; voucherId++) {
+            slots.add(SlotHash.getSlot(RedisKeys.seckillStock(voucherId)));
+        }
+        assertTrue(slots.size() > 800, "槽位数：" + slots.size());
+    }
+
+    @Test
+    void shopCounterSharesSlotWithDirtySet() {
+        for (long shopId = 1; shopId <= 1000; shopId++) {
+            int bucket = RedisKeys.shopCounterBucket(shopId);
+            String dirty = RedisKeys.shopCounterDirty(bucket);
+            assertEquals(SlotHash.getSlot(dirty), SlotHash.getSlot(RedisKeys.shopCounter(shopId)));
+            assertEquals(SlotHash.getSlot(dirty), SlotHash.getSlot(RedisKeys.shopCounterInflight(bucket)));
+        }
+    }
+
+    @Test
+    void seckillScriptOnlyUsesDeclaredKeys() throws IOException {
+        String script = StreamUtils.copyToString(new ClassPathResource("SecKill.lua").getInputStream()
+                , StandardCharsets.UTF_8);
+        for (String line : script.split("\n")) {
+            String code = line.trim();
+            if (code.startsWith("--")) {
+                continue;
+            }
+            // 不在脚本中拼接Key
+            assertFalse(code.contains(".."), code);
+        }
+        assertTrue(script.contains("KEYS[3]"));
+    }
+}
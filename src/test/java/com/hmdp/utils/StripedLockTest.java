@@ -0,0 +1,177 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用内存中的分布式锁模拟多个节点，校验本地锁不会让不同名称的锁相互影响
+ */
+class StripedLockTest {
+
+    /**
+     * hashCode相同的两个名称，本地锁按名称区分，不能因为哈希相同而相互影响
+     */
+    private static final String NAME_A = "lock:order:Aa";
+    private static final String NAME_B = "lock:order:BB";
+
+    /**
+     * 模拟Redis中的锁，名称 -> 持有者
+     */
+    private final Map<String, FakeRemoteLock> redis = new ConcurrentHashMap<>();
+
+    /**
+     * 每次获取分布式锁时的租期，小于等于0表示看门狗模式
+     */
+    private final List<Long> leases = new CopyOnWriteArrayList<>();
+
+    @Test
+    void namesWithSameHashTakeTheirOwnRemoteLocks() {
+        assertEquals(NAME_A.hashCode(), NAME_B.hashCode());
+        StripedLockFactory node1 = newNode();
+        StripedLockFactory node2 = newNode();
+
+        StripedLock a = node1.getLock(NAME_A);
+        StripedLock b = node1.getLock(NAME_B);
+        assertTrue(a.tryLock(10));
+        assertTrue(b.tryLock(10));
+        assertTrue(redis.containsKey(NAME_A));
+        assertTrue(redis.containsKey(NAME_B));
+
+        // 另一个节点拿不到B
+        assertFalse(node2.getLock(NAME_B).tryLock(10));
+
+        b.unlock();
+        assertFalse(redis.containsKey(NAME_B));
+        assertTrue(redis.containsKey(NAME_A));
+        assertTrue(node2.getLock(NAME_B).tryLock(10));
+        a.unlock();
+        assertFalse(redis.containsKey(NAME_A));
+    }
+
+    @Test
+    void namesWithSameHashDoNotBlockEachOther() throws Exception {
+        StripedLockFactory node = newNode();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch holdingA = new CountDownLatch(1);
+            CountDownLatch releaseA = new CountDownLatch(1);
+            Future<?> holder = executor.submit(() -> {
+                StripedLock a = node.getLock(NAME_A);
+                assertTrue(a.tryLock(10));
+                holdingA.countDown();
+                releaseA.await();
+                a.unlock();
+                return null;
+            });
+            assertTrue(holdingA.await(5, TimeUnit.SECONDS));
+            Future<Boolean> other = executor.submit(() -> {
+                StripedLock b = node.getLock(NAME_B);
+                boolean locked = b.tryLock(10);
+                if (locked) {
+                    b.unlock();
+                }
+                return locked;
+            });
+            assertTrue(other.get(5, TimeUnit.SECONDS));
+            releaseA.countDown();
+            holder.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void handoffToWatchdogWaiterSwitchesToWatchdog() throws Exception {
+        StripedLockFactory node = newNode();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            StripedLock holder = node.getLock(NAME_A);
+            assertTrue(holder.tryLock(10));
+            CountDownLatch acquired = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Future<?> waiter = executor.submit(() -> {
+                StripedLock lock = node.getLock(NAME_A);
+                assertTrue(lock.tryLock(5, -1, TimeUnit.SECONDS));
+                acquired.countDown();
+                release.await();
+                lock.unlock();
+                return null;
+            });
+            StripedLockFactory.Stripe stripe = node.get(NAME_A);
+            while (!stripe.local.hasQueuedThreads()) {
+                Thread.sleep(1);
+            }
+            holder.unlock();
+            assertTrue(acquired.await(5, TimeUnit.SECONDS));
+            // 固定租期的分布式锁不能直接交给看门狗模式的等待者
+            assertTrue(leases.get(leases.size() - 1) <= 0);
+            assertTrue(redis.get(NAME_A).watchdog);
+            release.countDown();
+            waiter.get(5, TimeUnit.SECONDS);
+            assertFalse(redis.containsKey(NAME_A));
+            assertNull(node.get(NAME_A));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private StripedLockFactory newNode() {
+        RedisLockFactory redisLockFactory = new RedisLockFactory();
+        return new StripedLockFactory() {
+            @Override
+            RedisReentrantLock newRemoteLock(String name) {
+                return new FakeRemoteLock(redisLockFactory, name);
+            }
+        };
+    }
+
+    private class FakeRemoteLock extends RedisReentrantLock {
+
+        private final String name;
+
+        private int holds;
+
+        private boolean watchdog;
+
+        FakeRemoteLock(RedisLockFactory factory, String name) {
+            super(factory, name);
+            this.name = name;
+        }
+
+        @Override
+        public synchronized boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) {
+            FakeRemoteLock owner = redis.putIfAbsent(name, this);
+            if (owner != null && owner != this) {
+                return false;
+            }
+            leases.add(leaseTime);
+            watchdog = leaseTime <= 0;
+            holds++;
+            return true;
+        }
+
+        @Override
+        public synchronized void unlock() {
+            if (redis.get(name) != this) {
+                throw new IllegalMonitorStateException("未持有锁：" + name);
+            }
+            if (--holds == 0) {
+                redis.remove(name);
+            }
+        }
+    }
+}